@@ -0,0 +1,13 @@
+-- Stores relation.commonid as the 16 bytes of its UUID instead of the 36 character text.
+-- Run with the service stopped, then start it with xref.common-id.storage: binary.
+-- Every existing commonid has to be a UUID in its textual form.
+
+ALTER TABLE XREF.`RELATION` ADD COLUMN `COMMONID_BINARY` BINARY(16);
+
+UPDATE XREF.`RELATION` SET `COMMONID_BINARY` = CAST(REPLACE(`COMMONID`, '-', '') AS BINARY(16));
+
+DROP INDEX XREF.COMMONID_0;
+ALTER TABLE XREF.`RELATION` DROP COLUMN `COMMONID`;
+ALTER TABLE XREF.`RELATION` ALTER COLUMN `COMMONID_BINARY` RENAME TO `COMMONID`;
+ALTER TABLE XREF.`RELATION` ALTER COLUMN `COMMONID` SET NOT NULL;
+CREATE UNIQUE INDEX XREF.COMMONID_0 ON XREF.`RELATION` (`COMMONID` ASC);
@@ -1,3 +1,5 @@
+-- The schema a new database starts from, the one of db/migration/h2/V1__baseline.sql. The tests migrate
+-- it to the current schema with Flyway, do not add later changes here.
 CREATE SCHEMA XREF;
 CREATE TABLE IF NOT EXISTS XREF.`ENTITYTYPE`
 (`ID` INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
@@ -28,10 +30,10 @@ CREATE INDEX XREF.ENDPOINT_0 ON XREF.`REFERENCE` (`ENDPOINTID` ASC);
 
 
 ALTER TABLE XREF.`RELATION`
-  ADD FOREIGN KEY (`ENTITYTYPE_ID`)
+  ADD CONSTRAINT FK_RELATION_ENTITYTYPE1 FOREIGN KEY (`ENTITYTYPE_ID`)
 REFERENCES XREF.`ENTITYTYPE`(`ID`);
 
 
 ALTER TABLE XREF.`REFERENCE`
-  ADD FOREIGN KEY (`RELATION_ID`)
-REFERENCES XREF.`RELATION`(`ID`);
\ No newline at end of file
+  ADD CONSTRAINT FK_REFERENCE_RELATION FOREIGN KEY (`RELATION_ID`)
+REFERENCES XREF.`RELATION`(`ID`);
@@ -0,0 +1,13 @@
+-- Stores relation.commonid as the 16 bytes of its UUID instead of the 36 character text.
+-- Run with the service stopped, then start it with xref.common-id.storage: binary.
+-- Every existing commonid has to be a UUID in its textual form.
+
+ALTER TABLE `relation` ADD COLUMN `commonid_binary` BINARY(16) NULL AFTER `commonid`;
+
+UPDATE `relation` SET `commonid_binary` = UNHEX(REPLACE(`commonid`, '-', ''));
+
+ALTER TABLE `relation`
+  DROP INDEX `COMMONID`,
+  DROP COLUMN `commonid`,
+  CHANGE COLUMN `commonid_binary` `commonid` BINARY(16) NOT NULL,
+  ADD UNIQUE INDEX `COMMONID` (`commonid` ASC);
@@ -1,3 +1,5 @@
+-- The schema a new database starts from, the one of db/migration/mysql/V1__baseline.sql. The service
+-- migrates it to the current schema on startup (flyway.baseline-version: 1), do not add later changes here.
 CREATE DATABASE `xref` /*!40100 DEFAULT CHARACTER SET latin1 */;
 
 CREATE TABLE IF NOT EXISTS `entitytype` (
@@ -36,4 +38,4 @@ CREATE TABLE IF NOT EXISTS `reference` (
     REFERENCES `relation` (`id`)
     ON DELETE NO ACTION
     ON UPDATE NO ACTION)
-ENGINE = InnoDB;
\ No newline at end of file
+ENGINE = InnoDB;
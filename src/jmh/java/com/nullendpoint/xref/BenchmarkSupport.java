@@ -0,0 +1,88 @@
+package com.nullendpoint.xref;
+
+import ch.qos.logback.classic.Level;
+import org.flywaydb.core.Flyway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Wiring shared by the benchmarks: an embedded H2 database migrated like the tests' one and the
+ * xref operation on top of it, without booting the Spring context.
+ */
+class BenchmarkSupport {
+
+    /**
+     * Keeps the debug logging of the application packages out of the measurements.
+     */
+    static void quietLogging() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    }
+
+    static EmbeddedDatabase createDatabase() {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                .generateUniqueName(true)
+                .setType(EmbeddedDatabaseType.H2)
+                .build();
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(database);
+        flyway.setLocations("classpath:db/migration/h2");
+        flyway.migrate();
+        return database;
+    }
+
+    static EhcacheSpringConfigurationFactory createConfigurationFactory(CacheValueFormat valueFormat) {
+        EhcacheSpringConfigurationFactory configurationFactory = new EhcacheSpringConfigurationFactory();
+        configurationFactory.setKeyType(String.class);
+        configurationFactory.setValueType(valueFormat.getValueType());
+        if (valueFormat == CacheValueFormat.OBJECT) {
+            configurationFactory.setValueSerializer(RelationSerializer.class);
+        }
+        return configurationFactory;
+    }
+
+    static JDBCXrefOperation createOperation(EmbeddedDatabase database, CacheProvider cacheProvider) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(database));
+        return new JDBCXrefOperation(jdbcTemplate, transactionTemplate, new CacheAccessor(cacheProvider));
+    }
+
+    static Relation createRelation(String endpoint, String endpointId) {
+        Relation relation = RelationFactory.createRelation();
+        relation.getReferences().add(RelationFactory.createRelationReference(endpoint, endpointId));
+        return relation;
+    }
+
+    /**
+     * Never caches anything, so every lookup goes to the database.
+     */
+    static class NoCacheProvider implements CacheProvider {
+
+        @Override
+        public Relation get(String cacheName, String key) {
+            return null;
+        }
+
+        @Override
+        public Map<String, Relation> getAll(String cacheName, Set<String> keys) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void put(String cacheName, String key, Relation relation) {
+        }
+
+        @Override
+        public void remove(String cacheName, String key) {
+        }
+    }
+}
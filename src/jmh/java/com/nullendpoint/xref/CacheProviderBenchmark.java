@@ -0,0 +1,90 @@
+package com.nullendpoint.xref;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.SimpleRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call overhead of the cache providers: the direct:*Cache Camel routes against the Ehcache API,
+ * for both value formats. Run with -prof gc to see the allocation per hit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheProviderBenchmark {
+
+    private static final String CACHE_NAME = "bench:person";
+
+    @Param({"camel", "ehcache"})
+    public String provider;
+
+    @Param({"json", "object"})
+    public String valueFormat;
+
+    private CamelContext camelContext;
+    private EhcacheCacheProvider ehcacheProvider;
+    private CacheProvider cacheProvider;
+    private Relation relation;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkSupport.quietLogging();
+        CacheValueFormat format = CacheValueFormat.valueOf(valueFormat.toUpperCase());
+        EhcacheSpringConfigurationFactory configurationFactory = BenchmarkSupport.createConfigurationFactory(format);
+        if ("camel".equals(provider)) {
+            configurationFactory.afterPropertiesSet();
+            SimpleRegistry registry = new SimpleRegistry();
+            registry.put("myProgrammaticConfiguration", configurationFactory.getObject());
+            camelContext = new DefaultCamelContext(registry);
+            camelContext.addRoutes(new Application.Backend(format));
+            camelContext.start();
+            cacheProvider = new CamelRouteCacheProvider(camelContext.createProducerTemplate(), format);
+        } else {
+            ehcacheProvider = new EhcacheCacheProvider(configurationFactory, format);
+            cacheProvider = ehcacheProvider;
+        }
+
+        relation = BenchmarkSupport.createRelation("sso", "benchfoo");
+        relation.setId(1);
+        relation.setCommonId("ace664a0-1d28-412a-9ea5-0bbf5739f4ce");
+        relation.getReferences().get(0).setId(1);
+        relation.getReferences().add(RelationFactory.createRelationReference(2, "dfs", "22311415"));
+        cacheProvider.put(CACHE_NAME, "sso:benchfoo", relation);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (camelContext != null) {
+            camelContext.stop();
+        }
+        if (ehcacheProvider != null) {
+            ehcacheProvider.close();
+        }
+    }
+
+    @Benchmark
+    public Relation getHit() {
+        return cacheProvider.get(CACHE_NAME, "sso:benchfoo");
+    }
+
+    @Benchmark
+    public Relation getMiss() {
+        return cacheProvider.get(CACHE_NAME, "sso:unknown");
+    }
+
+    @Benchmark
+    public void put() {
+        cacheProvider.put(CACHE_NAME, "sso:benchfoo", relation);
+    }
+}
@@ -0,0 +1,114 @@
+package com.nullendpoint.xref;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uncached lookups and writes through a new connection per statement (none), the pool with the
+ * driver defaults (hikari) and the pool with the settings of application.yml (tuned). Runs against
+ * embedded H2 by default, where only the pool makes a difference; point it at MySQL to see the
+ * statement cache and the batch rewriting as well:
+ * <pre>
+ * -Djmh.args="ConnectionPoolBenchmark -p url=jdbc:mysql://localhost:3306/xref_bench -p username=root -p password=..."
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class ConnectionPoolBenchmark {
+
+    private static final String TENANT = "bench";
+    private static final String ENTITY_SET = "person";
+
+    @Param({"none", "hikari", "tuned"})
+    public String pool;
+
+    @Param({"jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1"})
+    public String url;
+
+    @Param({"sa"})
+    public String username;
+
+    @Param({""})
+    public String password;
+
+    private DataSource dataSource;
+    private JDBCXrefOperation operation;
+    private Relation relation;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkSupport.quietLogging();
+        dataSource = createDataSource();
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(dataSource);
+        flyway.setLocations(url.startsWith("jdbc:mysql:") ? "classpath:db/migration/mysql" : "classpath:db/migration/h2");
+        flyway.clean();
+        flyway.migrate();
+        operation = new JDBCXrefOperation(new JdbcTemplate(dataSource),
+                new TransactionTemplate(new DataSourceTransactionManager(dataSource)),
+                new CacheAccessor(new BenchmarkSupport.NoCacheProvider()));
+        relation = operation.createRelation(ENTITY_SET, TENANT, BenchmarkSupport.createRelation("sso", "benchfoo"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (dataSource instanceof HikariDataSource) {
+            ((HikariDataSource) dataSource).close();
+        }
+    }
+
+    @Benchmark
+    public Relation findRelation() throws EntityNotFoundException {
+        return operation.findRelation(ENTITY_SET, TENANT, "sso", "benchfoo");
+    }
+
+    @Benchmark
+    public Relation addOrUpdateReference() throws EntityNotFoundException {
+        return operation.addOrUpdateReference("ad" + sequence.incrementAndGet(), "ActiveDirectory", relation.getCommonId(), ENTITY_SET, TENANT);
+    }
+
+    private DataSource createDataSource() {
+        if ("none".equals(pool)) {
+            return new DriverManagerDataSource(url, username, password);
+        }
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setMaximumPoolSize(20);
+        if ("tuned".equals(pool) && url.startsWith("jdbc:mysql:")) {
+            dataSource.addDataSourceProperty("cachePrepStmts", "true");
+            dataSource.addDataSourceProperty("prepStmtCacheSize", "250");
+            dataSource.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            dataSource.addDataSourceProperty("useServerPrepStmts", "true");
+            dataSource.addDataSourceProperty("rewriteBatchedStatements", "true");
+            dataSource.addDataSourceProperty("useLocalSessionState", "true");
+            dataSource.addDataSourceProperty("cacheResultSetMetadata", "true");
+            dataSource.addDataSourceProperty("cacheServerConfiguration", "true");
+            dataSource.addDataSourceProperty("elideSetAutoCommits", "true");
+            dataSource.addDataSourceProperty("maintainTimeStats", "false");
+        }
+        return dataSource;
+    }
+}
@@ -0,0 +1,77 @@
+package com.nullendpoint.xref;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the JSON forms of a {@link Relation}: a default mapper, one with Afterburner only and the
+ * shared {@link XrefJson} mapper with the streaming serializers. Run with -prof gc for allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JsonMapperBenchmark {
+
+    @Param({"default", "afterburner", "xref"})
+    public String mapper;
+
+    private ObjectWriter relationWriter;
+    private ObjectReader relationReader;
+    private ObjectWriter lookupWriter;
+    private Relation relation;
+    private List<RelationLookup> lookups;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws Exception {
+        ObjectMapper objectMapper;
+        if ("xref".equals(mapper)) {
+            objectMapper = XrefJson.mapper();
+        } else {
+            objectMapper = new ObjectMapper();
+            if ("afterburner".equals(mapper)) {
+                objectMapper.registerModule(new AfterburnerModule());
+            }
+        }
+        relation = RelationFactory.createRelation();
+        relation.setId(1);
+        relation.setCommonId("ace664a0-1d28-412a-9ea5-0bbf5739f4ce");
+        relation.getReferences().add(RelationFactory.createRelationReference(1, "idm", "test.user"));
+        relation.getReferences().add(RelationFactory.createRelationReference(2, "doie", "22311415"));
+        relation.getReferences().add(RelationFactory.createRelationReference(3, "ActiveDirectory", "redfoo~1"));
+        lookups = Collections.nCopies(100, new RelationLookup("idm", "test.user", relation));
+        relationWriter = objectMapper.writerFor(Relation.class);
+        relationReader = objectMapper.readerFor(Relation.class);
+        lookupWriter = objectMapper.writer();
+        json = relationWriter.writeValueAsBytes(relation);
+    }
+
+    @Benchmark
+    public byte[] writeRelation() throws Exception {
+        return relationWriter.writeValueAsBytes(relation);
+    }
+
+    @Benchmark
+    public Relation readRelation() throws Exception {
+        return relationReader.readValue(json);
+    }
+
+    @Benchmark
+    public byte[] writeBulkLookup() throws Exception {
+        return lookupWriter.writeValueAsBytes(lookups);
+    }
+}
@@ -0,0 +1,82 @@
+package com.nullendpoint.xref;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writing the references of a relation one insert at a time against a single JDBC batch, and
+ * createRelation end to end, for relations with 1, 10 and 100 references.
+ * <p>
+ * H2 runs in process, so this shows the statement overhead only. Point it at MySQL for the
+ * network round trips the batch saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReferenceBatchBenchmark {
+
+    private static final String INSERT_REFERENCE = "insert into reference (relation_id, entitytype_id, endpoint, endpointid) values (?, ?, ?, ?)";
+
+    @Param({"1", "10", "100"})
+    public int references;
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private JDBCXrefOperation operation;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        BenchmarkSupport.quietLogging();
+        database = BenchmarkSupport.createDatabase();
+        jdbcTemplate = new JdbcTemplate(database);
+        operation = BenchmarkSupport.createOperation(database, new BenchmarkSupport.NoCacheProvider());
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Benchmark
+    public void insertOneByOne() {
+        long id = sequence.incrementAndGet();
+        for (int i = 0; i < references; i++) {
+            jdbcTemplate.update(INSERT_REFERENCE, 1, 1, "system" + i, "row" + id);
+        }
+    }
+
+    @Benchmark
+    public int[] insertBatch() {
+        long id = sequence.incrementAndGet();
+        List<Object[]> batchArgs = new ArrayList<Object[]>(references);
+        for (int i = 0; i < references; i++) {
+            batchArgs.add(new Object[] {1, 1, "system" + i, "batch" + id});
+        }
+        return jdbcTemplate.batchUpdate(INSERT_REFERENCE, batchArgs);
+    }
+
+    @Benchmark
+    public Relation createRelation() throws EntityNotFoundException {
+        long id = sequence.incrementAndGet();
+        Relation relation = RelationFactory.createRelation();
+        for (int i = 0; i < references; i++) {
+            relation.getReferences().add(RelationFactory.createRelationReference("system" + i, "create" + id));
+        }
+        return operation.createRelation("person", "bench", relation);
+    }
+}
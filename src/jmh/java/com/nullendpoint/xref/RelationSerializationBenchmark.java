@@ -0,0 +1,67 @@
+package com.nullendpoint.xref;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a {@link Relation} into a cache or response value and back: Jackson, the
+ * {@link RelationSerializer} off-heap form and the heap snapshot. Run with -prof gc for allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RelationSerializationBenchmark {
+
+    private final ObjectMapper mapper = XrefJson.mapper();
+    private final RelationSerializer serializer = new RelationSerializer(getClass().getClassLoader());
+
+    private Relation relation;
+    private String json;
+    private ByteBuffer binary;
+
+    @Setup
+    public void setUp() throws Exception {
+        relation = RelationFactory.createRelation();
+        relation.setId(1);
+        relation.setCommonId("ace664a0-1d28-412a-9ea5-0bbf5739f4ce");
+        relation.getReferences().add(RelationFactory.createRelationReference(1, "idm", "test.user"));
+        relation.getReferences().add(RelationFactory.createRelationReference(2, "doie", "22311415"));
+        relation.getReferences().add(RelationFactory.createRelationReference(3, "ActiveDirectory", "redfoo~1"));
+        json = mapper.writeValueAsString(relation);
+        binary = serializer.serialize(relation);
+    }
+
+    @Benchmark
+    public String jacksonWrite() throws Exception {
+        return mapper.writeValueAsString(relation);
+    }
+
+    @Benchmark
+    public Relation jacksonRead() throws Exception {
+        return mapper.readValue(json, Relation.class);
+    }
+
+    @Benchmark
+    public ByteBuffer binaryWrite() {
+        return serializer.serialize(relation);
+    }
+
+    @Benchmark
+    public Relation binaryRead() throws Exception {
+        return serializer.read(binary);
+    }
+
+    @Benchmark
+    public Relation snapshot() {
+        return relation.snapshot();
+    }
+}
@@ -0,0 +1,81 @@
+package com.nullendpoint.xref;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of the {@link JDBCXrefOperation} entry points against embedded H2, with the relation
+ * served from the cache (hit) or loaded from the database on every call (miss).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XrefOperationBenchmark {
+
+    private static final String TENANT = "bench";
+    private static final String ENTITY_SET = "person";
+
+    @Param({"hit", "miss"})
+    public String cache;
+
+    private EmbeddedDatabase database;
+    private EhcacheCacheProvider cacheProvider;
+    private JDBCXrefOperation operation;
+    private Relation relation;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkSupport.quietLogging();
+        database = BenchmarkSupport.createDatabase();
+        if ("hit".equals(cache)) {
+            cacheProvider = new EhcacheCacheProvider(BenchmarkSupport.createConfigurationFactory(CacheValueFormat.OBJECT), CacheValueFormat.OBJECT);
+            operation = BenchmarkSupport.createOperation(database, cacheProvider);
+        } else {
+            operation = BenchmarkSupport.createOperation(database, new BenchmarkSupport.NoCacheProvider());
+        }
+        relation = operation.createRelation(ENTITY_SET, TENANT, BenchmarkSupport.createRelation("sso", "benchfoo"));
+        //warm the cache for both lookups
+        operation.findRelation(ENTITY_SET, TENANT, "sso", "benchfoo");
+        operation.findRelationByCommonId(relation.getCommonId(), ENTITY_SET, TENANT);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (cacheProvider != null) {
+            cacheProvider.close();
+        }
+        database.shutdown();
+    }
+
+    @Benchmark
+    public Relation findRelation() throws EntityNotFoundException {
+        return operation.findRelation(ENTITY_SET, TENANT, "sso", "benchfoo");
+    }
+
+    @Benchmark
+    public Relation findRelationByCommonId() throws EntityNotFoundException {
+        return operation.findRelationByCommonId(relation.getCommonId(), ENTITY_SET, TENANT);
+    }
+
+    @Benchmark
+    public Relation createRelation() throws EntityNotFoundException {
+        return operation.createRelation(ENTITY_SET, TENANT, BenchmarkSupport.createRelation("sso", "create" + sequence.incrementAndGet()));
+    }
+
+    @Benchmark
+    public Relation addOrUpdateReference() throws EntityNotFoundException {
+        return operation.addOrUpdateReference("ad" + sequence.incrementAndGet(), "ActiveDirectory", relation.getCommonId(), ENTITY_SET, TENANT);
+    }
+}
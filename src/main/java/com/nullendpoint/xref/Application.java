@@ -15,15 +15,26 @@
  */
 package com.nullendpoint.xref;
 
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.spring.boot.EnablePrometheusEndpoint;
+import io.prometheus.client.spring.boot.EnableSpringBootMetricsCollector;
 import net.sf.ehcache.config.CacheConfiguration;
 import org.apache.camel.*;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.component.ehcache.EhcacheConstants;
 import org.apache.camel.component.jackson.JacksonDataFormat;
+import org.apache.camel.component.jms.JmsComponent;
+import org.apache.camel.component.jms.JmsConstants;
+import org.apache.camel.component.metrics.routepolicy.MetricsRoutePolicyFactory;
 import org.apache.camel.component.servlet.CamelHttpTransportServlet;
 import org.apache.camel.model.dataformat.JsonLibrary;
 import org.apache.camel.model.rest.RestBindingMode;
+import org.apache.camel.model.rest.RestConfigurationDefinition;
 import org.apache.camel.model.rest.RestParamType;
 import org.ehcache.CacheManager;
 import org.ehcache.config.Configuration;
@@ -32,39 +43,132 @@ import org.ehcache.config.builders.CacheManagerBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.EntryUnit;
 import org.ehcache.config.units.MemoryUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.boot.web.support.SpringBootServletInitializer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ImportResource;
 import org.springframework.context.annotation.Scope;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jms.connection.CachingConnectionFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.jms.ConnectionFactory;
 import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @SpringBootApplication
+@EnableConfigurationProperties(CacheProperties.class)
+@EnablePrometheusEndpoint
+@EnableSpringBootMetricsCollector
 public class Application extends SpringBootServletInitializer {
 
+    private static final Logger log = LoggerFactory.getLogger(Application.class);
+
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
 
     @Qualifier("dataSource")
-    @Autowired
+    @Autowired(required = false)
     DataSource dataSource;
 
+    @Autowired(required = false)
+    ReplicaDataSource replicaDataSource;
+
+    @Autowired(required = false)
+    ReplicaProperties replicaProperties;
+
     @Autowired
     CamelContext camelContext;
 
+    @Autowired(required = false)
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    CacheProperties cacheProperties;
+
+    @Autowired
+    MetricRegistry metricRegistry;
+
+    @Value("${xref.cache.provider:ehcache}")
+    String cacheProvider;
+
+    @Value("${xref.cache.value-format:object}")
+    String cacheValueFormat;
+
+    @Value("${xref.entity-type.preload:false}")
+    boolean preloadEntityTypes;
+
+    @Value("${xref.common-id.generator:time-ordered}")
+    String commonIdGenerator;
+
+    @Value("${xref.common-id.storage:text}")
+    String commonIdStorage;
+
+    @Value("${xref.rest.transport:servlet}")
+    String restTransport;
+
+    @Value("${xref.rest.port:8082}")
+    int restPort;
+
+    @Value("${xref.rest.threads.max:${spring.datasource.hikari.maximum-pool-size:20}}")
+    int restMaxThreads;
+
+    @Value("${xref.rest.threads.queue-size:1000}")
+    int restQueueSize;
+
+    @Value("${xref.rest.threads.virtual:false}")
+    boolean restVirtualThreads;
+
+    @Value("${xref.store:jdbc}")
+    String store;
+
+    @Value("${xref.memory.path:data/xref-relations}")
+    String memoryPath;
+
+    @Value("${xref.memory.sync:false}")
+    boolean memorySync;
+
+    @Value("${xref.memory.snapshot-interval:300}")
+    long memorySnapshotInterval;
+
+    @Value("${xref.import.chunk-size:5000}")
+    int importChunkSize;
+
+    @Value("${xref.messaging.consumers:8}")
+    int messagingConsumers;
+
+    @Value("${xref.messaging.batch-size:100}")
+    int messagingBatchSize;
+
+    @Value("${xref.messaging.batch-timeout:5}")
+    long messagingBatchTimeout;
+
     @Bean(name = "json-jackson")
     @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public JacksonDataFormat jacksonDataFormat() {
-        return new JacksonDataFormat(new ObjectMapper(), Relation.class, SimpleResponse.class);
+        return new JacksonDataFormat(XrefJson.mapper(), Relation.class, SimpleResponse.class);
     }
 
 //    @Bean
@@ -74,6 +178,7 @@ public class Application extends SpringBootServletInitializer {
 //
 //    }
     @Bean
+    @ConditionalOnProperty(prefix = "xref.rest", name = "transport", havingValue = "servlet", matchIfMissing = true)
     ServletRegistrationBean servletRegistrationBean() {
         ServletRegistrationBean servlet = new ServletRegistrationBean(
             new CamelHttpTransportServlet(), "/*");
@@ -82,25 +187,212 @@ public class Application extends SpringBootServletInitializer {
     }
 
     @Bean
+    @ConditionalOnProperty(prefix = "xref", name = "store", havingValue = "jdbc", matchIfMissing = true)
     JdbcTemplate jdbcTemplate(){
         JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
         return jdbcTemplate;
     }
 
     @Bean
-    XrefOperationImpl xrefOperationImpl(){
-            XrefOperationImpl xrefOperationImpl = new XrefOperationImpl(jdbcTemplate(),producerTemplate());
+    @ConditionalOnProperty(prefix = "xref", name = "store", havingValue = "jdbc", matchIfMissing = true)
+    TransactionTemplate transactionTemplate(){
+        return new TransactionTemplate(transactionManager);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "xref", name = "store", havingValue = "jdbc", matchIfMissing = true)
+    JDBCXrefOperation jdbcXrefOperation(){
+        final JDBCXrefOperation jdbcXrefOperation = new JDBCXrefOperation(jdbcTemplate(), transactionTemplate(), cacheAccessor(),
+                xrefMetrics(), relationLoader());
+        //any tenant:entitySet can be requested, only the configured caches and those of existing entity types are metered apart
+        xrefMetrics().setCacheNames(new XrefMetrics.CacheNames() {
+            public boolean isKnown(String cacheName) {
+                return cacheProperties.isConfigured(cacheName) || jdbcXrefOperation.hasEntityType(cacheName);
+            }
+        });
+        jdbcXrefOperation.setCommonIdGenerator(CommonIdGenerator.valueOf(commonIdGenerator.toUpperCase().replace('-', '_')));
+        jdbcXrefOperation.setCommonIdStorage(CommonIdStorage.valueOf(commonIdStorage.toUpperCase()));
+        if(replicaDataSource != null) {
+            jdbcXrefOperation.setReadJdbcTemplate(new JdbcTemplate(replicaDataSource), replicaProperties.getReadYourWritesWindow());
+        }
+        if(preloadEntityTypes) {
+            jdbcXrefOperation.preloadEntityTypes();
+        }
+        return jdbcXrefOperation;
+    }
+
+    /**
+     * Only created with xref.store: memory. With an empty xref.memory.path the relations are lost on shutdown.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "xref", name = "store", havingValue = "memory")
+    InMemoryXrefOperation inMemoryXrefOperation() {
+        InMemoryXrefOperation inMemoryXrefOperation;
+        try {
+            RelationJournal journal = memoryPath.isEmpty() ? null : new RelationJournal(new File(memoryPath), memorySync);
+            inMemoryXrefOperation = new InMemoryXrefOperation(journal, memorySnapshotInterval);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not recover the relations from " + memoryPath, e);
+        }
+        inMemoryXrefOperation.setCommonIdGenerator(CommonIdGenerator.valueOf(commonIdGenerator.toUpperCase().replace('-', '_')));
+        return inMemoryXrefOperation;
+    }
+
+    @Bean
+    XrefOperationImpl xrefOperationImpl() {
+            XrefOperationImpl xrefOperationImpl = new XrefOperationImpl(xrefStore());
         return xrefOperationImpl;
     }
 
+    @Bean
+    RelationImporter relationImporter() {
+        return new RelationImporter(xrefStore(), XrefJson.mapper().readerFor(Relation.class), importChunkSize);
+    }
+
+    /**
+     * @return the operations of the store selected by xref.store
+     */
+    private XrefOperation xrefStore() {
+        return "memory".equals(store) ? inMemoryXrefOperation() : jdbcXrefOperation();
+    }
+
+    /**
+     * Only created with xref.messaging.enabled, connects to spring.activemq.broker-url or to a broker embedded
+     * in the JVM when it is not set. Sessions and producers are cached for the replies.
+     */
+    @Bean(name = "jms")
+    @ConditionalOnProperty(prefix = "xref.messaging", name = "enabled", havingValue = "true")
+    JmsComponent jmsComponent(ConnectionFactory connectionFactory) {
+        CachingConnectionFactory cachingConnectionFactory = new CachingConnectionFactory(connectionFactory);
+        cachingConnectionFactory.setSessionCacheSize(messagingConsumers);
+        return JmsComponent.jmsComponentAutoAcknowledge(cachingConnectionFactory);
+    }
+
     @Bean(name = "myProgrammaticConfiguration")
     EhcacheSpringConfigurationFactory myProgrammaticConfiguration(){
         EhcacheSpringConfigurationFactory configurationFactory =  new EhcacheSpringConfigurationFactory();
+        configurationFactory.setCacheProperties(cacheProperties);
         configurationFactory.setKeyType(String.class);
-        configurationFactory.setValueType(String.class);
+        configurationFactory.setValueType(cacheValueFormat().getValueType());
+        if(cacheValueFormat() == CacheValueFormat.OBJECT) {
+            configurationFactory.setValueSerializer(RelationSerializer.class);
+        }
         return configurationFactory;
     }
 
+    @Bean
+    CacheValueFormat cacheValueFormat() {
+        return CacheValueFormat.valueOf(cacheValueFormat.toUpperCase());
+    }
+
+    @Bean
+    CacheProvider cacheProvider() {
+        if("camel".equals(cacheProvider)) {
+            return new CamelRouteCacheProvider(producerTemplate(), cacheValueFormat());
+        }
+        return new EhcacheCacheProvider(myProgrammaticConfiguration(), cacheValueFormat(), xrefMetrics());
+    }
+
+    @Bean
+    CacheAccessor cacheAccessor() {
+        return new CacheAccessor(cacheProvider(), cacheProperties.getNegativeTtl(), cacheProperties.getNegativeMaxEntries(), xrefMetrics());
+    }
+
+    /**
+     * Only created in write-behind mode, replays the writes left in the log before the routes start.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "xref.write-behind", name = "enabled", havingValue = "true")
+    WriteBehindReferenceWriter referenceWriter(@Value("${xref.write-behind.log-path:data/xref-references.wal}") String logPath,
+                                               @Value("${xref.write-behind.log-size:67108864}") int logSize,
+                                               @Value("${xref.write-behind.sync:true}") boolean sync,
+                                               @Value("${xref.write-behind.batch-size:500}") int batchSize,
+                                               @Value("${xref.write-behind.flush-interval:200}") long flushInterval) throws IOException {
+        ReferenceWriteLog writeLog = new ReferenceWriteLog(new File(logPath), logSize, sync);
+        WriteBehindReferenceWriter referenceWriter = new WriteBehindReferenceWriter(writeLog, jdbcXrefOperation(), batchSize, flushInterval);
+        jdbcXrefOperation().setReferenceWriter(referenceWriter);
+        return referenceWriter;
+    }
+
+    /**
+     * Only created when the instances share invalidations, the other instances drop what this one writes.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "xref.invalidation", name = "channel", havingValue = "jdbc")
+    InvalidationChannel invalidationChannel(@Value("${xref.invalidation.poll-interval:1000}") long pollInterval,
+                                            @Value("${xref.invalidation.retention:600}") long retention) {
+        InvalidationChannel invalidationChannel = new JdbcInvalidationChannel(jdbcTemplate(), pollInterval, retention);
+        jdbcXrefOperation().setInvalidationChannel(invalidationChannel);
+        cacheAccessor().setInvalidationChannel(invalidationChannel);
+        return invalidationChannel;
+    }
+
+    /**
+     * Only created with xref.cache.warm-up, reports on /ready.
+     */
+    @Bean(initMethod = "start")
+    @ConditionalOnProperty(prefix = "xref.cache", name = "warm-up", havingValue = "true")
+    CacheWarmer cacheWarmer() {
+        return new CacheWarmer(new JdbcTemplate(dataSource), cacheAccessor(), cacheProperties,
+                CommonIdStorage.valueOf(commonIdStorage.toUpperCase()));
+    }
+
+    @Bean
+    ReadinessEndpoint readinessEndpoint(ObjectProvider<CacheWarmer> cacheWarmer) {
+        return new ReadinessEndpoint(cacheWarmer.getIfAvailable());
+    }
+
+    @Bean(destroyMethod = "close")
+    RelationLoader relationLoader() {
+        return new RelationLoader(cacheProperties, cacheProperties.isReadThrough(), cacheProperties.getRefreshAhead(), xrefMetrics());
+    }
+
+    @Bean
+    XrefMetrics xrefMetrics() {
+        return new XrefMetrics(metricRegistry);
+    }
+
+    /**
+     * Times every route, e.g. find-relation, in the registry Spring Boot publishes. Has to be added
+     * before the routes are, which happens once the application context is refreshed.
+     */
+    @Bean
+    MetricsRoutePolicyFactory metricsRoutePolicyFactory() {
+        MetricsRoutePolicyFactory routePolicyFactory = new MetricsRoutePolicyFactory();
+        routePolicyFactory.setMetricsRegistry(metricRegistry);
+        camelContext.addRoutePolicyFactory(routePolicyFactory);
+        return routePolicyFactory;
+    }
+
+    @Bean(destroyMethod = "stop")
+    JmxReporter jmxReporter() {
+        JmxReporter jmxReporter = JmxReporter.forRegistry(metricRegistry).inDomain("com.nullendpoint.xref").build();
+        jmxReporter.start();
+        return jmxReporter;
+    }
+
+    /**
+     * Runs the xref operations of the REST routes. The servlet transport blocks its request thread
+     * anyway, so the operations stay on it. Asynchronous transports such as netty4-http hand them to
+     * a bounded pool, or to virtual threads where the JVM has them, and free their IO threads.
+     */
+    @Bean(destroyMethod = "shutdown")
+    ExecutorService restExecutor() {
+        if("servlet".equals(restTransport)) {
+            return MoreExecutors.newDirectExecutorService();
+        }
+        if(restVirtualThreads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                log.warn("Virtual threads are not supported by this JVM, using a pool of "+restMaxThreads+" threads");
+            }
+        }
+        return new ThreadPoolExecutor(restMaxThreads, restMaxThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(restQueueSize),
+                new ThreadFactoryBuilder().setNameFormat("xref-rest-%d").setDaemon(true).build());
+    }
+
     @Bean
     ProducerTemplate producerTemplate(){
         return camelContext.createProducerTemplate();
@@ -111,14 +403,18 @@ public class Application extends SpringBootServletInitializer {
 
         @Override
         public void configure() {
-            restConfiguration()
+            RestConfigurationDefinition restConfiguration = restConfiguration()
                 .contextPath("/").apiContextPath("/api-doc")
                     .apiProperty("api.title", "Camel REST API")
                     .apiProperty("api.version", "1.0")
                     .apiProperty("cors", "true")
                     .apiContextRouteId("doc-api")
-                .component("servlet")
+                .component(restTransport)
                 .bindingMode(RestBindingMode.json);
+            if(!"servlet".equals(restTransport)) {
+                //other transports listen on a port of their own, the servlet one is served on server.port
+                restConfiguration.host("0.0.0.0").port(restPort);
+            }
 
             onException(EntityNotFoundException.class)
                     .handled(true)
@@ -131,6 +427,17 @@ public class Application extends SpringBootServletInitializer {
                         }
                     });
 
+            onException(RejectedExecutionException.class)
+                    .handled(true)
+                    .setHeader(Exchange.HTTP_RESPONSE_CODE, constant(503))
+                    .setHeader(Exchange.CONTENT_TYPE, constant("application/json"))
+                    .process(new Processor() {
+                        @Override
+                        public void process(Exchange exchange) throws Exception {
+                            exchange.getIn().setBody(new SimpleResponse("Too many requests in progress, please retry later."));
+                        }
+                    });
+
             rest("/xref").description("Identity Xref Service")
                     .get("/").description("simple hello i'm alive")
                         .route().routeId("xref-api")
@@ -147,52 +454,238 @@ public class Application extends SpringBootServletInitializer {
                         .param().name("endpoint").type(RestParamType.query).description("endpoint name").endParam()
                         .param().name("id").type(RestParamType.query).description("endpoint id").endParam()
                         .route().routeId("find-relation")
+                        .threads().executorService(restExecutor()).callerRunsWhenRejected(false)
                         .bean(xrefOperationImpl(), "findRelation")
                     .endRest()
+                    .post("/{tenant}/{entitySet}/lookup").description("resolve many endpoint ids in one call")
+                        .route().routeId("find-relations")
+                        .threads().executorService(restExecutor()).callerRunsWhenRejected(false)
+                        .bean(xrefOperationImpl(), "findRelations")
+                    .endRest()
                     .post("/{tenant}/{entitySet}")
                         .route().routeId("create-relation")
+                        .threads().executorService(restExecutor()).callerRunsWhenRejected(false)
                         .bean(xrefOperationImpl(), "createRelation")
                     .endRest()
                     .put("/{tenant}/{entitySet}")
                         .route().routeId("update-relation")
+                        .threads().executorService(restExecutor()).callerRunsWhenRejected(false)
                         .bean(xrefOperationImpl(), "updateRelation")
                     .endRest()
+                    .get("/{tenant}/{entitySet}/export").description("every relation of the entity set as newline-delimited JSON")
+                        .bindingMode(RestBindingMode.off).produces("application/x-ndjson")
+                        .param().name("after").type(RestParamType.query).description("id of the last relation already read").endParam()
+                        .param().name("limit").type(RestParamType.query).description("relations to read at most").endParam()
+                        .route().routeId("export-relations")
+                        .threads().executorService(restExecutor()).callerRunsWhenRejected(false)
+                        .bean(xrefOperationImpl(), "exportRelations")
+                        .process(new Processor() {
+                            @Override
+                            public void process(Exchange exchange) throws Exception {
+                                //streamed to the client as it is read, the stream closes the cursor
+                                RelationCursor cursor = exchange.getIn().getBody(RelationCursor.class);
+                                exchange.getIn().setBody(new NdjsonRelationStream(cursor, XrefJson.mapper().writerFor(Relation.class)));
+                            }
+                        })
+                        .setHeader(Exchange.CONTENT_TYPE, constant("application/x-ndjson"))
+                    .endRest()
+                    .post("/{tenant}/{entitySet}/import").description("create and extend relations from newline-delimited JSON or CSV")
+                        .bindingMode(RestBindingMode.off).consumes("application/x-ndjson,text/csv").produces("application/json")
+                        .route().routeId("import-relations")
+                        .threads().executorService(restExecutor()).callerRunsWhenRejected(false)
+                        .bean(relationImporter(), "importRelations")
+                        .marshal().json(JsonLibrary.Jackson)
+                        .setHeader(Exchange.CONTENT_TYPE, constant("application/json"))
+                    .endRest()
                     .get("/{tenant}/{entitySet}/{commonId}")
                         .route().routeId("find-relation-commonId")
+                        .threads().executorService(restExecutor()).callerRunsWhenRejected(false)
                         .bean(xrefOperationImpl(), "findRelationByCommonId")
                     .endRest()
                     .delete("/{tenant}/{entitySet}/{commonId}/{endpoint}/{endpointId}")
                         .route().routeId("delete-reference")
+                        .threads().executorService(restExecutor()).callerRunsWhenRejected(false)
                         .bean(xrefOperationImpl(), "deleteReference")
                     .endRest()
                     .put("/{tenant}/{entitySet}/{commonId}/{endpoint}/{id}")
                         .route().routeId("add-update-reference")
+                        .threads().executorService(restExecutor()).callerRunsWhenRejected(false)
                         .bean(xrefOperationImpl(), "addOrUpdateReference")
                     .endRest();
         }
     }
 
+    /**
+     * The lookup, create and add-reference operations of the REST API as request-reply over JMS queues. The
+     * tenant and entity set travel as the tenant and entitySet properties of the message, the reply goes to its
+     * JMSReplyTo with its JMSCorrelationID, or its JMSMessageID when it has none, and carries a status property.
+     * <p>
+     * Lookups are collected into batches per entity set of up to xref.messaging.batch-size messages, or
+     * whatever arrived within xref.messaging.batch-timeout milliseconds, and resolved with one bulk lookup.
+     */
+    @Component
+    @ConditionalOnProperty(prefix = "xref.messaging", name = "enabled", havingValue = "true")
+    class MessagingApi extends RouteBuilder {
+
+        @Override
+        public void configure() {
+            String consumer = "?concurrentConsumers=" + messagingConsumers + "&cacheLevelName=CACHE_CONSUMER";
+
+            onException(EntityNotFoundException.class)
+                    .handled(true)
+                    .setHeader("status", constant(404))
+                    .setBody(constant(new SimpleResponse("Could not find Relation with the provided Identifiers.")))
+                    .marshal().json(JsonLibrary.Jackson).convertBodyTo(String.class);
+
+            onException(Exception.class)
+                    .handled(true)
+                    .setHeader("status", constant(500))
+                    .process(new Processor() {
+                        @Override
+                        public void process(Exchange exchange) throws Exception {
+                            Exception exception = exchange.getProperty(Exchange.EXCEPTION_CAUGHT, Exception.class);
+                            exchange.getIn().setBody(new SimpleResponse(exception.getMessage()));
+                        }
+                    })
+                    .marshal().json(JsonLibrary.Jackson).convertBodyTo(String.class);
+
+            //replied to by the batch, not by the consumer, and by the handlers of the lookups that fail on their own
+            from("jms:queue:xref.lookup" + consumer + "&disableReplyTo=true").routeId("jms-find-relation")
+                    .onException(IOException.class, IllegalArgumentException.class)
+                        .handled(true)
+                        .process(replyWithError(400))
+                    .end()
+                    .onException(Exception.class)
+                        .handled(true)
+                        .process(replyWithError(500))
+                    .end()
+                    .unmarshal().json(JsonLibrary.Jackson, Relation.Reference.class)
+                    .process(new Processor() {
+                        @Override
+                        public void process(Exchange exchange) throws Exception {
+                            if(exchange.getIn().getHeader("tenant") == null || exchange.getIn().getHeader("entitySet") == null) {
+                                throw new IllegalArgumentException("A lookup needs the tenant and entitySet properties");
+                            }
+                        }
+                    })
+                    .aggregate(simple("${header.tenant}:${header.entitySet}")).groupExchanges()
+                        .completionSize(messagingBatchSize).completionTimeout(messagingBatchTimeout)
+                        .completionTimeoutCheckerInterval(messagingBatchTimeout)
+                        .parallelProcessing()
+                    .process(new Processor() {
+                        @Override
+                        public void process(Exchange exchange) throws Exception {
+                            replyToLookups(exchange.getIn().getBody(List.class));
+                        }
+                    });
+
+            from("jms:queue:xref.create" + consumer).routeId("jms-create-relation")
+                    .unmarshal().json(JsonLibrary.Jackson, Relation.class)
+                    .bean(xrefOperationImpl(), "createRelation")
+                    .setHeader("status", constant(200))
+                    .marshal().json(JsonLibrary.Jackson).convertBodyTo(String.class);
+
+            from("jms:queue:xref.reference" + consumer).routeId("jms-add-update-reference")
+                    .bean(xrefOperationImpl(), "addOrUpdateReference")
+                    .setHeader("status", constant(200))
+                    .marshal().json(JsonLibrary.Jackson).convertBodyTo(String.class);
+        }
+
+        /**
+         * Answers a lookup that failed before it joined a batch, as the consumer does not reply to it.
+         */
+        private Processor replyWithError(final int status) {
+            return new Processor() {
+                @Override
+                public void process(Exchange exchange) throws Exception {
+                    Exception exception = exchange.getProperty(Exchange.EXCEPTION_CAUGHT, Exception.class);
+                    reply(exchange, status, XrefJson.mapper().writeValueAsString(new SimpleResponse(exception.getMessage())));
+                }
+            };
+        }
+
+        private void replyToLookups(List<Exchange> batch) throws Exception {
+            xrefMetrics().lookupBatch(batch.size());
+            Exchange first = batch.get(0);
+            String tenant = first.getIn().getHeader("tenant", String.class);
+            String entitySet = first.getIn().getHeader("entitySet", String.class);
+            Relation lookup = RelationFactory.createRelation();
+            for(Exchange exchange : batch) {
+                lookup.getReferences().add(exchange.getIn().getBody(Relation.Reference.class));
+            }
+            ObjectWriter writer = XrefJson.mapper().writer();
+            List<RelationLookup> results;
+            try {
+                results = xrefOperationImpl().findRelations(entitySet, tenant, lookup);
+            } catch (RuntimeException e) {
+                log.error("Could not look up a batch of "+batch.size()+" references of "+tenant+":"+entitySet+": "+e.getMessage(), e);
+                for(Exchange exchange : batch) {
+                    reply(exchange, 500, writer.writeValueAsString(new SimpleResponse(e.getMessage())));
+                }
+                return;
+            }
+            for(int i = 0; i < batch.size(); i++) {
+                RelationLookup result = results.get(i);
+                if(result.isFound()) {
+                    reply(batch.get(i), 200, writer.writeValueAsString(result.getRelation()));
+                } else {
+                    reply(batch.get(i), 404, writer.writeValueAsString(new SimpleResponse("Could not find Relation with the provided Identifiers.")));
+                }
+            }
+        }
+
+        private void reply(Exchange request, final int status, final String body) {
+            final Object replyTo = request.getIn().getHeader("JMSReplyTo");
+            if(replyTo == null) {
+                return;
+            }
+            String correlationId = request.getIn().getHeader("JMSCorrelationID", String.class);
+            final String replyCorrelationId = correlationId != null ? correlationId : request.getIn().getHeader("JMSMessageID", String.class);
+            producerTemplate().send("jms:queue:xref.reply", ExchangePattern.InOnly, new Processor() {
+                @Override
+                public void process(Exchange exchange) throws Exception {
+                    exchange.getIn().setHeader(JmsConstants.JMS_DESTINATION, replyTo);
+                    exchange.getIn().setHeader("JMSCorrelationID", replyCorrelationId);
+                    exchange.getIn().setHeader("status", status);
+                    exchange.getIn().setBody(body);
+                }
+            });
+        }
+    }
+
     @Component
-    class Backend extends RouteBuilder {
+    static class Backend extends RouteBuilder {
+
+        private final CacheValueFormat valueFormat;
+
+        @Autowired
+        Backend(CacheValueFormat valueFormat) {
+            this.valueFormat = valueFormat;
+        }
 
         @Override
         public void configure() {
 
+            String cacheUri = "ehcache://${header.CamelEhcacheName}?configuration=#myProgrammaticConfiguration&keyType=java.lang.String&valueType="
+                    + valueFormat.getValueType().getName();
+
             from("direct:saveToCache").setExchangePattern(ExchangePattern.InOut)
                     .setHeader(EhcacheConstants.ACTION, constant(EhcacheConstants.ACTION_PUT))
-                    .marshal().json(JsonLibrary.Jackson).convertBodyTo(String.class)
                     .setHeader(EhcacheConstants.VALUE, body())
                     .to("log:com.nullendpoint.xref?showAll=true")
-                    .toD("ehcache://${header.CamelEhcacheName}?configuration=#myProgrammaticConfiguration&keyType=java.lang.String&valueType=java.lang.String");
+                    .toD(cacheUri);
 
             from("direct:getFromCache").setExchangePattern(ExchangePattern.InOut)
                     .setHeader(EhcacheConstants.ACTION, constant(EhcacheConstants.ACTION_GET))
-                    .toD("ehcache://${header.CamelEhcacheName}?configuration=#myProgrammaticConfiguration&keyType=java.lang.String&valueType=java.lang.String")
-                    .choice().when(simple("${body} != null")).unmarshal().json(JsonLibrary.Jackson);
+                    .toD(cacheUri);
+
+            from("direct:getAllFromCache").setExchangePattern(ExchangePattern.InOut)
+                    .setHeader(EhcacheConstants.ACTION, constant(EhcacheConstants.ACTION_GET_ALL))
+                    .toD(cacheUri);
 
             from("direct:deleteFromCache").setExchangePattern(ExchangePattern.InOut)
                     .setHeader(EhcacheConstants.ACTION, constant(EhcacheConstants.ACTION_REMOVE))
-                    .toD("ehcache://${header.CamelEhcacheName}?configuration=#myProgrammaticConfiguration&keyType=java.lang.String&valueType=java.lang.String");
+                    .toD(cacheUri);
 
         }
     }
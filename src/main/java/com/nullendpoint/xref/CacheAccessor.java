@@ -1,71 +1,172 @@
 package com.nullendpoint.xref;
 
-import com.google.common.collect.ImmutableMap;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
-import org.apache.camel.ProducerTemplate;
-import org.apache.camel.component.ehcache.EhcacheConstants;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class CacheAccessor {
 	
-	private final ProducerTemplate template;
+	private final CacheProvider provider;
+	private final Cache<String, Boolean> missingRelations;
+	private final XrefMetrics metrics;
+	private volatile InvalidationChannel invalidationChannel;
 	private static final Logger log = LoggerFactory.getLogger(CacheAccessor.class);
-	private static final String SAVE_TO_CACHE = "direct:saveToCache";
-	private static final String LOAD_FROM_CACHE = "direct:getFromCache";
-	private static final String DELETE_FROM_CACHE = "direct:deleteFromCache";
 
-	public CacheAccessor(ProducerTemplate template) {
-		this.template = template;
+	public CacheAccessor(CacheProvider provider) {
+		this(provider, 0, 0);
+	}
+
+	/**
+	 * @param negativeTtl seconds an endpoint id that could not be found is remembered as missing, 0 disables negative caching
+	 */
+	public CacheAccessor(CacheProvider provider, long negativeTtl, long negativeMaxEntries) {
+		this(provider, negativeTtl, negativeMaxEntries, new XrefMetrics());
+	}
+
+	public CacheAccessor(CacheProvider provider, long negativeTtl, long negativeMaxEntries, XrefMetrics metrics) {
+		this.provider = provider;
+		this.metrics = metrics;
+		if(negativeTtl > 0) {
+			this.missingRelations = CacheBuilder.newBuilder()
+					.expireAfterWrite(negativeTtl, TimeUnit.SECONDS)
+					.maximumSize(negativeMaxEntries)
+					.build();
+		} else {
+			this.missingRelations = null;
+		}
+	}
+
+	/**
+	 * Shares the invalidations of this instance with the others over the channel and drops the keys they publish.
+	 */
+	public void setInvalidationChannel(InvalidationChannel invalidationChannel) {
+		invalidationChannel.subscribe(new InvalidationChannel.Listener() {
+			public void invalidate(String cacheName, String key) {
+				invalidateLocally(cacheName, key);
+			}
+		});
+		this.invalidationChannel = invalidationChannel;
+	}
+
+	/**
+	 * Tells the other instances to drop the given common ids and endpoint keys of tenant:entitySet, once the
+	 * write that changed them is committed. Does nothing without an invalidation channel.
+	 */
+	public void publishInvalidation(String tenant, String entitySet, Collection<String> keys) {
+		InvalidationChannel channel = invalidationChannel;
+		if(channel == null || keys.isEmpty()) {
+			return;
+		}
+		try {
+			channel.publish(createCacheKey(tenant, entitySet), keys);
+		} catch(Exception e) {
+			log.error("Could not publish the invalidation of "+keys.size()+" keys, other instances keep them until they expire: "+e.getMessage(), e);
+		}
 	}
 
 	public Relation getRelationByEndpoint(String tenant, String entitySet, String endpoint, String endpointId) {
 		String cacheKey = createCacheKey(tenant, entitySet);
 		String endpointKey = createEndpointKey(endpoint, endpointId);
-		Map headers = ImmutableMap.of("CamelEhcacheName", cacheKey, EhcacheConstants.KEY, endpointKey);
 		try {
-			Object obj = template.requestBodyAndHeaders(LOAD_FROM_CACHE, null, headers);
-			if(obj != null) {
+			Relation r = provider.get(cacheKey, endpointKey);
+			if(r != null) {
 				log.trace("Cache hit for Endpoint: "+endpointKey);
-				Relation r = (Relation) obj;
+				metrics.cacheHits(cacheKey, 1);
 				return r;
 			}
 		} catch(Exception e) {
 			log.error(e.getMessage(), e);
 		}
 		log.trace("Cache miss for Endpoint: "+endpointKey);
+		metrics.cacheMisses(cacheKey, 1);
 		return null;
 	}
 
+	/**
+	 * Looks up all of the given references in a single cache call.
+	 *
+	 * @return the cached relations keyed by endpoint key, misses are absent from the map
+	 */
+	public Map<String, Relation> getRelationsByEndpoint(String tenant, String entitySet, List<Relation.Reference> references) {
+		Set<String> endpointKeys = new LinkedHashSet<String>();
+		for(Relation.Reference reference : references) {
+			endpointKeys.add(createEndpointKey(reference.getEndpoint(), reference.getEndpointId()));
+		}
+		if(endpointKeys.isEmpty()) {
+			return new HashMap<String, Relation>();
+		}
+		String cacheKey = createCacheKey(tenant, entitySet);
+		try {
+			Map<String, Relation> relations = provider.getAll(cacheKey, endpointKeys);
+			log.trace("Cache hits for "+relations.size()+" of "+endpointKeys.size()+" Endpoints");
+			metrics.cacheHits(cacheKey, relations.size());
+			metrics.cacheMisses(cacheKey, endpointKeys.size() - relations.size());
+			return relations;
+		} catch(Exception e) {
+			log.error(e.getMessage(), e);
+		}
+		metrics.cacheMisses(cacheKey, endpointKeys.size());
+		return new HashMap<String, Relation>();
+	}
+
+	/**
+	 * @return true when the endpoint id was recently looked up and could not be found
+	 */
+	public boolean isRelationMissingByEndpoint(String tenant, String entitySet, String endpoint, String endpointId) {
+		if(missingRelations == null) {
+			return false;
+		}
+		boolean missing = missingRelations.getIfPresent(createMissingKey(tenant, entitySet, endpoint, endpointId)) != null;
+		if(missing) {
+			log.trace("Negative cache hit for Endpoint: "+createEndpointKey(endpoint, endpointId));
+			metrics.negativeCacheHit(createCacheKey(tenant, entitySet));
+		}
+		return missing;
+	}
+
+	public void putMissingRelationByEndpoint(String tenant, String entitySet, String endpoint, String endpointId) {
+		if(missingRelations != null) {
+			missingRelations.put(createMissingKey(tenant, entitySet, endpoint, endpointId), Boolean.TRUE);
+		}
+	}
+
 	public Relation getRelationByCommonId(String tenant, String entitySet, String commonId) {
 		String cacheKey = createCacheKey(tenant, entitySet);
-		Map headers = ImmutableMap.of("CamelEhcacheName", cacheKey, EhcacheConstants.KEY, commonId);
 		try {
-			Object obj = template.requestBodyAndHeaders(LOAD_FROM_CACHE, null, headers);
-			//Element element = cache.get(commonId);
-			if(obj != null) {
+			Relation r = provider.get(cacheKey, commonId);
+			if(r != null) {
 				log.trace("Cache hit for CommonId: "+commonId);
-				Relation r = (Relation) obj;
+				metrics.cacheHits(cacheKey, 1);
 				return r;
 			}
 		} catch(Exception e) {
 			log.error(e.getMessage(), e);
 		}
 		log.trace("Cache miss for CommonId: "+commonId);
+		metrics.cacheMisses(cacheKey, 1);
 		return null;
 	}
 
 
+	/**
+	 * Caches the relation for the endpoint id, which also drops the endpoint id from the negative cache.
+	 */
 	public void putRelationByEndpoint(String tenant, String entitySet, String endpoint, String endpointId, Relation relation) {
 		String cacheKey = createCacheKey(tenant, entitySet);
+		if(missingRelations != null) {
+			missingRelations.invalidate(createMissingKey(tenant, entitySet, endpoint, endpointId));
+		}
 		try {
-			Map headers = ImmutableMap.of("CamelEhcacheName", cacheKey, EhcacheConstants.KEY, createEndpointKey(endpoint, endpointId));
-			template.requestBodyAndHeaders(SAVE_TO_CACHE, relation, headers);
+			provider.put(cacheKey, createEndpointKey(endpoint, endpointId), relation);
 		} catch(Exception e) {
 			log.error("Could not insert into cache: "+e.getMessage(), e);
 		}
@@ -74,8 +175,7 @@ public class CacheAccessor {
 	public void putRelationByCommonId(String tenant, String entitySet, String commonId, Relation relation) {
 		String cacheKey = createCacheKey(tenant, entitySet);
 		try {
-			Map headers = ImmutableMap.of("CamelEhcacheName", cacheKey, EhcacheConstants.KEY, commonId);
-			template.requestBodyAndHeaders(SAVE_TO_CACHE, relation, headers);
+			provider.put(cacheKey, commonId, relation);
 		} catch(Exception e) {
 			log.error("Could not insert into cache: "+e.getMessage(), e);
 		}
@@ -84,8 +184,7 @@ public class CacheAccessor {
 	public void deleteRelationByEndpoint(String tenant, String entitySet, String endpoint, String endpointId) {
 		String cacheKey = createCacheKey(tenant, entitySet);
 		try {
-			Map headers = ImmutableMap.of("CamelEhcacheName", cacheKey, EhcacheConstants.KEY, createEndpointKey(endpoint, endpointId));
-			template.requestBodyAndHeaders(DELETE_FROM_CACHE, null, headers);
+			provider.remove(cacheKey, createEndpointKey(endpoint, endpointId));
 		} catch(Exception e) {
 			log.error("Could not delete from cache: "+e.getMessage(), e);
 		}
@@ -94,19 +193,50 @@ public class CacheAccessor {
 	public void deleteRelationByCommonId(String tenant, String entitySet, String commonId, Relation relation) {
 		String cacheKey = createCacheKey(tenant, entitySet);
 		try {
-			Map headers = ImmutableMap.of("CamelEhcacheName", cacheKey, EhcacheConstants.KEY, commonId);
-			template.requestBodyAndHeaders(DELETE_FROM_CACHE, null, headers);
+			provider.remove(cacheKey, commonId);
 		} catch(Exception e) {
 			log.error("Could not delete from cache: "+e.getMessage(), e);
 		}
 	}	
 
 	
-	private String createCacheKey(String tenant, String cacheName) {
+	/**
+	 * Drops the given common ids and endpoint keys of tenant:entitySet from this instance's caches,
+	 * the negative cache included.
+	 */
+	public void invalidate(String tenant, String entitySet, Collection<String> keys) {
+		String cacheName = createCacheKey(tenant, entitySet);
+		for(String key : keys) {
+			remove(cacheName, key);
+		}
+	}
+
+	private void invalidateLocally(String cacheName, String key) {
+		log.trace("Invalidation of "+cacheName+" "+key+" from another instance");
+		remove(cacheName, key);
+		metrics.remoteInvalidation(cacheName);
+	}
+
+	private void remove(String cacheName, String key) {
+		if(missingRelations != null) {
+			missingRelations.invalidate(cacheName + ":" + key);
+		}
+		try {
+			provider.remove(cacheName, key);
+		} catch(Exception e) {
+			log.error("Could not delete from cache: "+e.getMessage(), e);
+		}
+	}
+
+	static String createCacheKey(String tenant, String cacheName) {
 		return tenant + ":" + cacheName;
 	}
 	
-	private String createEndpointKey(String endpoint, String endpointId) {
+	private String createMissingKey(String tenant, String entitySet, String endpoint, String endpointId) {
+		return createCacheKey(tenant, entitySet) + ":" + createEndpointKey(endpoint, endpointId);
+	}
+
+	static String createEndpointKey(String endpoint, String endpointId) {
 		return endpoint + ":" + endpointId;
 	}
 	
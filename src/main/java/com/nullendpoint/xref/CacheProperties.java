@@ -0,0 +1,302 @@
+package com.nullendpoint.xref;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sizing, expiry and tiering of the tenant:entitySet caches, bound from xref.cache.
+ * <p>
+ * Every setting left empty on an entity set falls back to its tenant, and from there to the defaults.
+ * The heap size and the expiry fall back as a whole: a spec with heap-entries or heap-size replaces both,
+ * one with time-to-live or time-to-idle replaces both.
+ */
+@ConfigurationProperties(prefix = "xref.cache")
+public class CacheProperties implements InitializingBean {
+
+    private CacheSpec defaults = CacheSpec.of(100L, null, "1MB");
+
+    /**
+     * Directory of the disk tier, required as soon as a disk-size is configured.
+     */
+    private String diskPath;
+
+    private Map<String, CacheSpec> tenants = new HashMap<String, CacheSpec>();
+
+    /**
+     * Seconds an endpoint id that could not be found is remembered as missing, 0 disables negative caching.
+     */
+    private long negativeTtl = 30;
+
+    private long negativeMaxEntries = 10000;
+
+    /**
+     * Whether concurrent misses of the same key share one database load.
+     */
+    private boolean readThrough = true;
+
+    /**
+     * Fraction of the time-to-live after which a hit reloads the entry in the background, 0 disables refresh-ahead.
+     */
+    private double refreshAhead = 0;
+
+    private long refreshMaxEntries = 100000;
+
+    /**
+     * Whether the caches are filled from the database on startup, see warm-up-entries.
+     */
+    private boolean warmUp = false;
+
+    /**
+     * Rows fetched from the database at a time during the warm-up.
+     */
+    private int warmUpFetchSize = 1000;
+
+    public CacheSpec getDefaults() {
+        return defaults;
+    }
+
+    public void setDefaults(CacheSpec defaults) {
+        this.defaults = defaults;
+    }
+
+    public String getDiskPath() {
+        return diskPath;
+    }
+
+    public void setDiskPath(String diskPath) {
+        this.diskPath = diskPath;
+    }
+
+    public Map<String, CacheSpec> getTenants() {
+        return tenants;
+    }
+
+    public void setTenants(Map<String, CacheSpec> tenants) {
+        this.tenants = tenants;
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    public void setNegativeTtl(long negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    public long getNegativeMaxEntries() {
+        return negativeMaxEntries;
+    }
+
+    public void setNegativeMaxEntries(long negativeMaxEntries) {
+        this.negativeMaxEntries = negativeMaxEntries;
+    }
+
+    public boolean isReadThrough() {
+        return readThrough;
+    }
+
+    public void setReadThrough(boolean readThrough) {
+        this.readThrough = readThrough;
+    }
+
+    public double getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    public void setRefreshAhead(double refreshAhead) {
+        this.refreshAhead = refreshAhead;
+    }
+
+    public long getRefreshMaxEntries() {
+        return refreshMaxEntries;
+    }
+
+    public void setRefreshMaxEntries(long refreshMaxEntries) {
+        this.refreshMaxEntries = refreshMaxEntries;
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    public int getWarmUpFetchSize() {
+        return warmUpFetchSize;
+    }
+
+    public void setWarmUpFetchSize(int warmUpFetchSize) {
+        this.warmUpFetchSize = warmUpFetchSize;
+    }
+
+    /**
+     * Rejects a spec with both time-to-live and time-to-idle, an Ehcache cache expires by one of them only.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        defaults.checkExpiry("xref.cache.defaults");
+        for (Map.Entry<String, CacheSpec> tenant : tenants.entrySet()) {
+            tenant.getValue().checkExpiry("xref.cache.tenants." + tenant.getKey());
+            for (Map.Entry<String, CacheSpec> entitySet : tenant.getValue().getEntitySets().entrySet()) {
+                entitySet.getValue().checkExpiry("xref.cache.tenants." + tenant.getKey() + ".entity-sets." + entitySet.getKey());
+            }
+        }
+    }
+
+    /**
+     * Resolves the settings of a cache named tenant:entitySet.
+     */
+    public CacheSpec resolve(String cacheName) {
+        String[] names = cacheName.split(":", 2);
+        CacheSpec spec = defaults;
+        CacheSpec tenant = tenants.get(names[0]);
+        if (tenant != null) {
+            spec = tenant.overrides(spec);
+            if (names.length > 1 && tenant.getEntitySets().containsKey(names[1])) {
+                spec = tenant.getEntitySets().get(names[1]).overrides(spec);
+            }
+        }
+        return spec;
+    }
+
+    /**
+     * Whether the cache named tenant:entitySet has settings of its own under its tenant.
+     */
+    public boolean isConfigured(String cacheName) {
+        String[] names = cacheName.split(":", 2);
+        CacheSpec tenant = tenants.get(names[0]);
+        return tenant != null && names.length > 1 && tenant.getEntitySets().containsKey(names[1]);
+    }
+
+    public static class CacheSpec {
+
+        private Long heapEntries;
+        /**
+         * Heap size in bytes, e.g. 64MB, used instead of heap-entries when set.
+         */
+        private String heapSize;
+        private String offheapSize;
+        private String diskSize;
+        /**
+         * Seconds an entry lives after it was written.
+         */
+        private Long timeToLive;
+        /**
+         * Seconds an entry lives after it was last read, instead of a time-to-live.
+         */
+        private Long timeToIdle;
+        /**
+         * Relations loaded into the cache on startup, the most recently created ones.
+         */
+        private Long warmUpEntries;
+        private Map<String, CacheSpec> entitySets = new HashMap<String, CacheSpec>();
+
+        static CacheSpec of(Long heapEntries, String heapSize, String offheapSize) {
+            CacheSpec spec = new CacheSpec();
+            spec.heapEntries = heapEntries;
+            spec.heapSize = heapSize;
+            spec.offheapSize = offheapSize;
+            return spec;
+        }
+
+        /**
+         * Returns a spec with the settings of this spec, taking every setting it leaves empty from the parent.
+         */
+        CacheSpec overrides(CacheSpec parent) {
+            CacheSpec spec = new CacheSpec();
+            if (heapEntries != null || heapSize != null) {
+                spec.heapEntries = heapEntries;
+                spec.heapSize = heapSize;
+            } else {
+                spec.heapEntries = parent.heapEntries;
+                spec.heapSize = parent.heapSize;
+            }
+            spec.offheapSize = offheapSize != null ? offheapSize : parent.offheapSize;
+            spec.diskSize = diskSize != null ? diskSize : parent.diskSize;
+            if (timeToLive != null || timeToIdle != null) {
+                spec.timeToLive = timeToLive;
+                spec.timeToIdle = timeToIdle;
+            } else {
+                spec.timeToLive = parent.timeToLive;
+                spec.timeToIdle = parent.timeToIdle;
+            }
+            spec.warmUpEntries = warmUpEntries != null ? warmUpEntries : parent.warmUpEntries;
+            return spec;
+        }
+
+        void checkExpiry(String name) {
+            if (timeToLive != null && timeToIdle != null) {
+                throw new IllegalArgumentException(name + " sets both time-to-live and time-to-idle, a cache expires by one of them");
+            }
+        }
+
+        public Long getHeapEntries() {
+            return heapEntries;
+        }
+
+        public void setHeapEntries(Long heapEntries) {
+            this.heapEntries = heapEntries;
+        }
+
+        public String getHeapSize() {
+            return heapSize;
+        }
+
+        public void setHeapSize(String heapSize) {
+            this.heapSize = heapSize;
+        }
+
+        public String getOffheapSize() {
+            return offheapSize;
+        }
+
+        public void setOffheapSize(String offheapSize) {
+            this.offheapSize = offheapSize;
+        }
+
+        public String getDiskSize() {
+            return diskSize;
+        }
+
+        public void setDiskSize(String diskSize) {
+            this.diskSize = diskSize;
+        }
+
+        public Long getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(Long timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+
+        public Long getTimeToIdle() {
+            return timeToIdle;
+        }
+
+        public void setTimeToIdle(Long timeToIdle) {
+            this.timeToIdle = timeToIdle;
+        }
+
+        public Long getWarmUpEntries() {
+            return warmUpEntries;
+        }
+
+        public void setWarmUpEntries(Long warmUpEntries) {
+            this.warmUpEntries = warmUpEntries;
+        }
+
+        public Map<String, CacheSpec> getEntitySets() {
+            return entitySets;
+        }
+
+        public void setEntitySets(Map<String, CacheSpec> entitySets) {
+            this.entitySets = entitySets;
+        }
+    }
+}
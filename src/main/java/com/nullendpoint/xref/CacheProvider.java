@@ -0,0 +1,21 @@
+package com.nullendpoint.xref;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores relations in the named caches used by {@link CacheAccessor}, one cache per tenant:entitySet.
+ */
+public interface CacheProvider {
+
+	public Relation get(String cacheName, String key);
+
+	/**
+	 * @return the cached relations by key, keys that are not cached are absent from the map
+	 */
+	public Map<String, Relation> getAll(String cacheName, Set<String> keys);
+
+	public void put(String cacheName, String key, Relation relation);
+
+	public void remove(String cacheName, String key);
+}
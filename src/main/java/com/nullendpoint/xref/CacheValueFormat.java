@@ -0,0 +1,66 @@
+package com.nullendpoint.xref;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * How relations are stored as cache values, selected with xref.cache.value-format.
+ */
+public enum CacheValueFormat {
+
+    /**
+     * Relations are cached as JSON strings, every hit parses the string into a new Relation.
+     */
+    JSON(String.class) {
+        @Override
+        public Object toCacheValue(Relation relation) {
+            try {
+                return mapper.writeValueAsString(relation);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write Relation as JSON", e);
+            }
+        }
+
+        @Override
+        public Relation fromCacheValue(Object value) {
+            try {
+                return value == null ? null : mapper.readValue((String) value, Relation.class);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read cached Relation", e);
+            }
+        }
+    },
+
+    /**
+     * Relations are cached as immutable snapshots that are returned as is on a heap hit, the
+     * off-heap tier stores them with {@link RelationSerializer}.
+     */
+    OBJECT(Relation.class) {
+        @Override
+        public Object toCacheValue(Relation relation) {
+            return relation.snapshot();
+        }
+
+        @Override
+        public Relation fromCacheValue(Object value) {
+            return (Relation) value;
+        }
+    };
+
+    private static final ObjectMapper mapper = XrefJson.mapper();
+
+    private final Class<?> valueType;
+
+    CacheValueFormat(Class<?> valueType) {
+        this.valueType = valueType;
+    }
+
+    public Class<?> getValueType() {
+        return valueType;
+    }
+
+    public abstract Object toCacheValue(Relation relation);
+
+    public abstract Relation fromCacheValue(Object value);
+}
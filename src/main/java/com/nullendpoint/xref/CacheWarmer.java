@@ -0,0 +1,144 @@
+package com.nullendpoint.xref;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills the tenant:entitySet caches with the most recently created relations on startup, as many as the
+ * warm-up-entries of each cache. The relations are streamed oldest first, so the newest ones are the last
+ * to be cached and the first to stay should the cache be smaller.
+ * <p>
+ * Runs in the background and reports OUT_OF_SERVICE on the {@link ReadinessEndpoint} until it is done, which
+ * keeps the instance out of the load balancer. A failed warm-up is logged and does not hold back the instance.
+ */
+public class CacheWarmer {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheWarmer.class);
+
+    static final String SELECT_RECENT_RELATIONS = "select " + RelationResultSetExtractor.COLUMNS + " from "
+            + "(select id from relation where entitytype_id = ? order by id desc limit ?) recent "
+            + "inner join relation on relation.id = recent.id "
+            + "left join reference on reference.relation_id = relation.id "
+            + "order by relation.id, reference.id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CacheAccessor cacheAccessor;
+    private final CacheProperties cacheProperties;
+    private final CommonIdStorage commonIdStorage;
+    private final AtomicLong relations = new AtomicLong();
+    private volatile boolean done;
+    private volatile String failure;
+
+    /**
+     * @param jdbcTemplate a template of its own, its fetch size is set to warm-up-fetch-size
+     */
+    public CacheWarmer(JdbcTemplate jdbcTemplate, CacheAccessor cacheAccessor, CacheProperties cacheProperties, CommonIdStorage commonIdStorage) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cacheAccessor = cacheAccessor;
+        this.cacheProperties = cacheProperties;
+        this.commonIdStorage = commonIdStorage;
+        jdbcTemplate.setFetchSize(cacheProperties.getWarmUpFetchSize());
+    }
+
+    /**
+     * Starts the warm-up in the background.
+     */
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                warmUp();
+            }
+        }, "xref-cache-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Warms up every cache with warm-up-entries, one after the other.
+     */
+    public void warmUp() {
+        long start = System.currentTimeMillis();
+        try {
+            final List<Object[]> entityTypes = new ArrayList<Object[]>();
+            jdbcTemplate.query("select id, tenant, entitytype from entitytype", new RowCallbackHandler() {
+                public void processRow(ResultSet rs) throws SQLException {
+                    entityTypes.add(new Object[] {rs.getInt("id"), rs.getString("tenant"), rs.getString("entitytype")});
+                }
+            });
+            for(Object[] entityType : entityTypes) {
+                String tenant = (String) entityType[1];
+                String entitySet = (String) entityType[2];
+                Long entries = cacheProperties.resolve(CacheAccessor.createCacheKey(tenant, entitySet)).getWarmUpEntries();
+                if(entries != null && entries > 0) {
+                    warmUp((Integer) entityType[0], tenant, entitySet, entries);
+                }
+            }
+            log.info("Warmed up the caches with "+relations.get()+" relations in "+(System.currentTimeMillis() - start)+"ms");
+        } catch (RuntimeException e) {
+            failure = e.getMessage();
+            log.error("Could not warm up the caches, continuing with "+relations.get()+" relations cached: "+e.getMessage(), e);
+        } finally {
+            done = true;
+        }
+    }
+
+    private void warmUp(Integer entityTypeId, final String tenant, final String entitySet, long entries) {
+        jdbcTemplate.query(SELECT_RECENT_RELATIONS, new Object[] {entityTypeId, entries}, new ResultSetExtractor<Void>() {
+            public Void extractData(ResultSet rs) throws SQLException {
+                //holds the relation of the current rows only, the rows of a relation are next to each other
+                Map<Integer, Relation> current = new HashMap<Integer, Relation>(2);
+                Set<Integer> referenceIds = new HashSet<Integer>();
+                while(rs.next()) {
+                    if(!current.isEmpty() && !current.containsKey(rs.getInt("id"))) {
+                        cache(tenant, entitySet, current.values().iterator().next());
+                        current.clear();
+                        referenceIds.clear();
+                    }
+                    RelationResultSetExtractor.addRow(rs, commonIdStorage, current, referenceIds);
+                }
+                if(!current.isEmpty()) {
+                    cache(tenant, entitySet, current.values().iterator().next());
+                }
+                return null;
+            }
+        });
+    }
+
+    private void cache(String tenant, String entitySet, Relation relation) {
+        for(Relation.Reference reference : relation.getReferences()) {
+            cacheAccessor.putRelationByEndpoint(tenant, entitySet, reference.getEndpoint(), reference.getEndpointId(), relation);
+        }
+        cacheAccessor.putRelationByCommonId(tenant, entitySet, relation.getCommonId(), relation);
+        relations.incrementAndGet();
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return UP once the warm-up is done, whether it failed or not, with the number of relations cached so far
+     */
+    public Health readiness() {
+        Health.Builder health = done ? Health.up() : Health.outOfService();
+        health.withDetail("relations", relations.get());
+        if(failure != null) {
+            health.withDetail("error", failure);
+        }
+        return health.build();
+    }
+}
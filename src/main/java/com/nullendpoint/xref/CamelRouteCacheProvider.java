@@ -0,0 +1,61 @@
+package com.nullendpoint.xref;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.component.ehcache.EhcacheConstants;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Goes through the direct:*Cache routes of {@link Application.Backend} for every cache operation.
+ * Values are converted to the given {@link CacheValueFormat} before they are handed to the routes.
+ */
+public class CamelRouteCacheProvider implements CacheProvider {
+
+	private static final String SAVE_TO_CACHE = "direct:saveToCache";
+	private static final String LOAD_FROM_CACHE = "direct:getFromCache";
+	private static final String LOAD_ALL_FROM_CACHE = "direct:getAllFromCache";
+	private static final String DELETE_FROM_CACHE = "direct:deleteFromCache";
+	private final ProducerTemplate template;
+	private final CacheValueFormat valueFormat;
+
+	public CamelRouteCacheProvider(ProducerTemplate template, CacheValueFormat valueFormat) {
+		this.template = template;
+		this.valueFormat = valueFormat;
+	}
+
+	@Override
+	public Relation get(String cacheName, String key) {
+		Map headers = ImmutableMap.of("CamelEhcacheName", cacheName, EhcacheConstants.KEY, key);
+		return valueFormat.fromCacheValue(template.requestBodyAndHeaders(LOAD_FROM_CACHE, null, headers));
+	}
+
+	@Override
+	public Map<String, Relation> getAll(String cacheName, Set<String> keys) {
+		Map<String, Relation> relations = new HashMap<String, Relation>();
+		Map headers = ImmutableMap.of("CamelEhcacheName", cacheName, EhcacheConstants.KEYS, keys);
+		Map<?, ?> values = template.requestBodyAndHeaders(LOAD_ALL_FROM_CACHE, null, headers, Map.class);
+		if(values != null) {
+			for(Map.Entry<?, ?> entry : values.entrySet()) {
+				if(entry.getValue() != null) {
+					relations.put((String) entry.getKey(), valueFormat.fromCacheValue(entry.getValue()));
+				}
+			}
+		}
+		return relations;
+	}
+
+	@Override
+	public void put(String cacheName, String key, Relation relation) {
+		Map headers = ImmutableMap.of("CamelEhcacheName", cacheName, EhcacheConstants.KEY, key);
+		template.requestBodyAndHeaders(SAVE_TO_CACHE, valueFormat.toCacheValue(relation), headers);
+	}
+
+	@Override
+	public void remove(String cacheName, String key) {
+		Map headers = ImmutableMap.of("CamelEhcacheName", cacheName, EhcacheConstants.KEY, key);
+		template.requestBodyAndHeaders(DELETE_FROM_CACHE, null, headers);
+	}
+}
@@ -0,0 +1,37 @@
+package com.nullendpoint.xref;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Strategies for the commonId of a new relation. Both produce a UUID in its textual form.
+ */
+public enum CommonIdGenerator {
+
+    /**
+     * Random (version 4) UUIDs from the shared SecureRandom of {@link UUID#randomUUID()}.
+     */
+    RANDOM {
+        @Override
+        public String generate() {
+            return UUID.randomUUID().toString();
+        }
+    },
+
+    /**
+     * Version 7 UUIDs, a millisecond timestamp followed by 74 random bits from {@link ThreadLocalRandom}.
+     * They never wait for entropy, and relations created close together get neighbouring commonIds, so
+     * inserts append to the commonId index instead of landing on random pages.
+     */
+    TIME_ORDERED {
+        @Override
+        public String generate() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long mostSigBits = (System.currentTimeMillis() << 16) | 0x7000L | (random.nextInt() & 0x0FFFL);
+            long leastSigBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+            return new UUID(mostSigBits, leastSigBits).toString();
+        }
+    };
+
+    public abstract String generate();
+}
@@ -0,0 +1,84 @@
+package com.nullendpoint.xref;
+
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * How relation.commonid is stored. The API always uses the textual form.
+ */
+public enum CommonIdStorage {
+
+    /**
+     * The textual form in a VARCHAR column.
+     */
+    TEXT {
+        @Override
+        public Object toColumn(String commonId) {
+            return commonId;
+        }
+
+        @Override
+        public String fromColumn(ResultSet rs, String column) throws SQLException {
+            return rs.getString(column);
+        }
+
+        @Override
+        public String canonical(String commonId) {
+            return commonId;
+        }
+    },
+
+    /**
+     * The 16 bytes of the UUID in a BINARY(16) column, see sql/*-commonid-binary.sql for the migration.
+     */
+    BINARY {
+        @Override
+        public Object toColumn(String commonId) {
+            UUID uuid;
+            try {
+                uuid = UUID.fromString(commonId);
+            } catch (IllegalArgumentException e) {
+                //not a commonId this service handed out, so it cannot match any relation
+                return null;
+            }
+            return ByteBuffer.allocate(16)
+                    .putLong(uuid.getMostSignificantBits())
+                    .putLong(uuid.getLeastSignificantBits())
+                    .array();
+        }
+
+        @Override
+        public String fromColumn(ResultSet rs, String column) throws SQLException {
+            byte[] bytes = rs.getBytes(column);
+            if (bytes == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new UUID(buffer.getLong(), buffer.getLong()).toString();
+        }
+
+        @Override
+        public String canonical(String commonId) {
+            try {
+                return UUID.fromString(commonId).toString();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("The commonId "+commonId+" is not a UUID and can not be stored in BINARY(16)", e);
+            }
+        }
+    };
+
+    /**
+     * @return the value to bind for the commonid column, null when the commonId cannot be stored in this form
+     */
+    public abstract Object toColumn(String commonId);
+
+    public abstract String fromColumn(ResultSet rs, String column) throws SQLException;
+
+    /**
+     * @return the commonId as {@link #fromColumn} reads it back, to be used for a relation before it is inserted
+     * @throws IllegalArgumentException when the commonId can not be stored in this form
+     */
+    public abstract String canonical(String commonId);
+}
@@ -0,0 +1,70 @@
+package com.nullendpoint.xref;
+
+import com.codahale.metrics.MetricRegistry;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The HikariCP pool behind the service. Url and credentials come from spring.datasource, the pool sizing
+ * and the driver properties, such as the prepared statement cache, from spring.datasource.hikari.
+ * The pool records its wait, usage and connection metrics as xref.pool.* in the Dropwizard registry.
+ * <p>
+ * Read replicas listed under xref.replicas get a pool each, with the settings of the primary one.
+ * There are no pools with xref.store: memory.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "xref", name = "store", havingValue = "jdbc", matchIfMissing = true)
+@EnableConfigurationProperties(ReplicaProperties.class)
+public class DataSourceConfiguration {
+
+    @Autowired
+    MetricRegistry metricRegistry;
+
+    @Autowired
+    ReplicaProperties replicaProperties;
+
+    @Bean
+    @Primary
+    @ConfigurationProperties(prefix = "spring.datasource.hikari")
+    HikariDataSource dataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = (HikariDataSource) properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+        dataSource.setPoolName("xref.pool");
+        dataSource.setMetricRegistry(metricRegistry);
+        return dataSource;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "xref.replicas", name = "urls[0]")
+    ReplicaDataSource replicaDataSource(HikariDataSource dataSource) {
+        List<DataSource> replicas = new ArrayList<DataSource>();
+        for(int i = 0; i < replicaProperties.getUrls().size(); i++) {
+            HikariConfig config = new HikariConfig();
+            dataSource.copyState(config);
+            config.setJdbcUrl(replicaProperties.getUrls().get(i));
+            if(replicaProperties.getUsername() != null) {
+                config.setUsername(replicaProperties.getUsername());
+                config.setPassword(replicaProperties.getPassword());
+            }
+            config.setPoolName("xref.replica-" + i);
+            config.setMetricRegistry(metricRegistry);
+            //a replica that is down must not keep the service from starting, the reads fall back to the primary
+            config.setInitializationFailFast(false);
+            replicas.add(new HikariDataSource(config));
+        }
+        return new ReplicaDataSource(replicas, dataSource, replicaProperties.getRetryInterval(), new XrefMetrics(metricRegistry));
+    }
+}
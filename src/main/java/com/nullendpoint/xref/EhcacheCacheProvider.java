@@ -0,0 +1,109 @@
+package com.nullendpoint.xref;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.CacheConfiguration;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+
+import java.io.File;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Uses the Ehcache API directly. The cache of a tenant:entitySet is created on first use and its
+ * handle kept, so a lookup costs a map get plus the cache access itself. Every cache gets the
+ * configuration of its own name from {@link EhcacheSpringConfigurationFactory}, values are stored
+ * in the given {@link CacheValueFormat}, which has to match the configured value type. Evictions
+ * and expiries are counted per cache in {@link XrefMetrics}.
+ */
+public class EhcacheCacheProvider implements CacheProvider {
+
+	private final CacheManager cacheManager;
+	private final EhcacheSpringConfigurationFactory configurationFactory;
+	private final CacheValueFormat valueFormat;
+	private final XrefMetrics metrics;
+	private final ConcurrentMap<String, Cache<String, Object>> caches = new ConcurrentHashMap<String, Cache<String, Object>>();
+
+	public EhcacheCacheProvider(EhcacheSpringConfigurationFactory configurationFactory, CacheValueFormat valueFormat) {
+		this(configurationFactory, valueFormat, new XrefMetrics());
+	}
+
+	public EhcacheCacheProvider(EhcacheSpringConfigurationFactory configurationFactory, CacheValueFormat valueFormat, XrefMetrics metrics) {
+		this.configurationFactory = configurationFactory;
+		this.valueFormat = valueFormat;
+		this.metrics = metrics;
+		String diskPath = configurationFactory.getCacheProperties().getDiskPath();
+		if(diskPath != null) {
+			this.cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+					.with(CacheManagerBuilder.persistence(new File(diskPath)))
+					.build(true);
+		} else {
+			this.cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build(true);
+		}
+	}
+
+	@Override
+	public Relation get(String cacheName, String key) {
+		return valueFormat.fromCacheValue(getCache(cacheName).get(key));
+	}
+
+	@Override
+	public Map<String, Relation> getAll(String cacheName, Set<String> keys) {
+		Map<String, Relation> relations = new HashMap<String, Relation>();
+		for(Map.Entry<String, Object> entry : getCache(cacheName).getAll(keys).entrySet()) {
+			if(entry.getValue() != null) {
+				relations.put(entry.getKey(), valueFormat.fromCacheValue(entry.getValue()));
+			}
+		}
+		return relations;
+	}
+
+	@Override
+	public void put(String cacheName, String key, Relation relation) {
+		getCache(cacheName).put(key, valueFormat.toCacheValue(relation));
+	}
+
+	@Override
+	public void remove(String cacheName, String key) {
+		getCache(cacheName).remove(key);
+	}
+
+	public void close() {
+		cacheManager.close();
+	}
+
+	@SuppressWarnings("unchecked")
+	private Cache<String, Object> getCache(String cacheName) {
+		Cache<String, Object> cache = caches.get(cacheName);
+		if(cache == null) {
+			synchronized (caches) {
+				cache = caches.get(cacheName);
+				if(cache == null) {
+					cache = cacheManager.createCache(cacheName,
+							(CacheConfiguration<String, Object>) configurationFactory.createConfiguration(cacheName));
+					registerRemovalListener(cacheName, cache);
+					caches.put(cacheName, cache);
+				}
+			}
+		}
+		return cache;
+	}
+
+	private void registerRemovalListener(final String cacheName, Cache<String, Object> cache) {
+		cache.getRuntimeConfiguration().registerCacheEventListener(event -> {
+			if(event.getType() == EventType.EVICTED) {
+				metrics.cacheEviction(cacheName);
+			} else {
+				metrics.cacheExpiry(cacheName);
+			}
+		}, EventOrdering.UNORDERED, EventFiring.ASYNCHRONOUS, EnumSet.of(EventType.EVICTED, EventType.EXPIRED));
+	}
+}
@@ -21,11 +21,23 @@ import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.EntryUnit;
 import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.expiry.Duration;
+import org.ehcache.expiry.Expirations;
+import org.ehcache.impl.config.serializer.DefaultSerializerConfiguration;
+import org.ehcache.spi.serialization.Serializer;
 import org.springframework.beans.factory.config.AbstractFactoryBean;
 
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public class EhcacheSpringConfigurationFactory extends AbstractFactoryBean<CacheConfiguration> {
+    private static final Pattern SIZE = Pattern.compile("(\\d+)\\s*([KMGTP]?B)");
+
+    private CacheProperties cacheProperties = new CacheProperties();
     private Class<?> keyType = Object.class;
     private Class<?> valueType = Object.class;
+    private Class<? extends Serializer> valueSerializer;
 
     public Class<?> getKeyType() {
         return keyType;
@@ -43,6 +55,25 @@ public class EhcacheSpringConfigurationFactory extends AbstractFactoryBean<Cache
         this.valueType = valueType;
     }
 
+    public Class<? extends Serializer> getValueSerializer() {
+        return valueSerializer;
+    }
+
+    /**
+     * Serializer used for the value in the off-heap tier, needed when the value type is not {@link java.io.Serializable}.
+     */
+    public void setValueSerializer(Class<? extends Serializer> valueSerializer) {
+        this.valueSerializer = valueSerializer;
+    }
+
+    public CacheProperties getCacheProperties() {
+        return cacheProperties;
+    }
+
+    public void setCacheProperties(CacheProperties cacheProperties) {
+        this.cacheProperties = cacheProperties;
+    }
+
     @Override
     public Class<?> getObjectType() {
         return CacheConfiguration.class;
@@ -50,12 +81,51 @@ public class EhcacheSpringConfigurationFactory extends AbstractFactoryBean<Cache
 
     @Override
     protected CacheConfiguration createInstance() throws Exception {
-        return CacheConfigurationBuilder.newCacheConfigurationBuilder(
-            keyType,
-            valueType,
-            ResourcePoolsBuilder.newResourcePoolsBuilder()
-                .heap(100, EntryUnit.ENTRIES)
-                .offheap(1, MemoryUnit.MB))
-            .build();
+        return createConfiguration(cacheProperties.getDefaults());
+    }
+
+    /**
+     * Creates the configuration of a single tenant:entitySet cache, applying its overrides from {@link CacheProperties}.
+     */
+    public CacheConfiguration<?, ?> createConfiguration(String cacheName) {
+        return createConfiguration(cacheProperties.resolve(cacheName));
+    }
+
+    @SuppressWarnings("unchecked")
+    private CacheConfiguration<?, ?> createConfiguration(CacheProperties.CacheSpec spec) {
+        ResourcePoolsBuilder pools = ResourcePoolsBuilder.newResourcePoolsBuilder();
+        if (spec.getHeapSize() != null) {
+            Matcher size = parseSize(spec.getHeapSize());
+            pools = pools.heap(Long.parseLong(size.group(1)), MemoryUnit.valueOf(size.group(2)));
+        } else {
+            pools = pools.heap(spec.getHeapEntries(), EntryUnit.ENTRIES);
+        }
+        if (spec.getOffheapSize() != null) {
+            Matcher size = parseSize(spec.getOffheapSize());
+            pools = pools.offheap(Long.parseLong(size.group(1)), MemoryUnit.valueOf(size.group(2)));
+        }
+        if (spec.getDiskSize() != null) {
+            Matcher size = parseSize(spec.getDiskSize());
+            pools = pools.disk(Long.parseLong(size.group(1)), MemoryUnit.valueOf(size.group(2)), true);
+        }
+
+        CacheConfigurationBuilder builder = CacheConfigurationBuilder.newCacheConfigurationBuilder(keyType, valueType, pools);
+        if (spec.getTimeToIdle() != null) {
+            builder = builder.withExpiry(Expirations.timeToIdleExpiration(Duration.of(spec.getTimeToIdle(), TimeUnit.SECONDS)));
+        } else if (spec.getTimeToLive() != null) {
+            builder = builder.withExpiry(Expirations.timeToLiveExpiration(Duration.of(spec.getTimeToLive(), TimeUnit.SECONDS)));
+        }
+        if (valueSerializer != null) {
+            builder = builder.add(new DefaultSerializerConfiguration(valueSerializer, DefaultSerializerConfiguration.Type.VALUE));
+        }
+        return builder.build();
+    }
+
+    private static Matcher parseSize(String value) {
+        Matcher size = SIZE.matcher(value.trim().toUpperCase());
+        if (!size.matches()) {
+            throw new IllegalArgumentException("Invalid cache size '" + value + "', expected a number followed by B, KB, MB, GB, TB or PB");
+        }
+        return size;
     }
 }
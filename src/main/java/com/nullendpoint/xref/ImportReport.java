@@ -0,0 +1,127 @@
+package com.nullendpoint.xref;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: how the records were applied and why the failed ones were not. Only the first
+ * {@link #MAX_REPORTED_FAILURES} failures are listed, all of them are counted.
+ */
+public class ImportReport {
+
+    static final int MAX_REPORTED_FAILURES = 1000;
+
+    private long records;
+    private long created;
+    private long extended;
+    private long unchanged;
+    private long references;
+    private long failed;
+    private final List<Failure> failures = new ArrayList<Failure>();
+
+    void record() {
+        records++;
+    }
+
+    void created() {
+        created++;
+    }
+
+    void extended() {
+        extended++;
+    }
+
+    void unchanged() {
+        unchanged++;
+    }
+
+    void referencesInserted(int count) {
+        references += count;
+    }
+
+    void failed(long record, String reason) {
+        failed++;
+        if(failures.size() < MAX_REPORTED_FAILURES) {
+            failures.add(new Failure(record, reason));
+        }
+    }
+
+    /**
+     * Adds the outcome of a chunk, the records are counted by whoever reads them.
+     */
+    void add(ImportReport chunk) {
+        created += chunk.created;
+        extended += chunk.extended;
+        unchanged += chunk.unchanged;
+        references += chunk.references;
+        for(Failure failure : chunk.failures) {
+            failed(failure.getRecord(), failure.getReason());
+        }
+        failed += chunk.failed - chunk.failures.size();
+    }
+
+    /**
+     * @return the records read, including the ones that failed
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the records that became a new relation
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the records that added references to an existing relation
+     */
+    public long getExtended() {
+        return extended;
+    }
+
+    /**
+     * @return the records whose references all existed already
+     */
+    public long getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return the references inserted
+     */
+    public long getReferences() {
+        return references;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    public static class Failure {
+
+        private final long record;
+        private final String reason;
+
+        Failure(long record, String reason) {
+            this.record = record;
+            this.reason = reason;
+        }
+
+        /**
+         * @return the line of the record in the upload, starting at 1
+         */
+        public long getRecord() {
+            return record;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+}
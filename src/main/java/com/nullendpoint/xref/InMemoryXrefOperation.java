@@ -0,0 +1,476 @@
+package com.nullendpoint.xref;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps every relation in memory, for deployments without a database. Selected with xref.store: memory.
+ * <p>
+ * Each entity set indexes its relations by endpoint key, common id and id in concurrent maps, so lookups take
+ * no lock and return the stored relation as is; stored relations are immutable snapshots that a write replaces.
+ * Writes to an entity set are serialized on one of a fixed number of lock stripes, writes to other entity
+ * sets go on in parallel. With a {@link RelationJournal} every write is logged before it is applied and the
+ * relations are recovered from its snapshot and logs on startup.
+ */
+public class InMemoryXrefOperation implements XrefOperation, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryXrefOperation.class);
+    private static final int LOCK_STRIPES = 64;
+
+    private final ConcurrentMap<String, EntitySet> entitySets = new ConcurrentHashMap<String, EntitySet>();
+    private final ConcurrentMap<String, EntitySet> entitySetsByCommonId = new ConcurrentHashMap<String, EntitySet>();
+    private final ConcurrentMap<String, String> endpoints = new ConcurrentHashMap<String, String>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    //writes share it, a snapshot takes it alone to cut the log at a consistent state
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final AtomicInteger relationIds = new AtomicInteger();
+    private final AtomicInteger referenceIds = new AtomicInteger();
+    private final RelationJournal journal;
+    private final ScheduledExecutorService snapshotter;
+    private CommonIdGenerator commonIdGenerator = CommonIdGenerator.TIME_ORDERED;
+    private long snapshotSequence;
+
+    /**
+     * @param journal          where the writes are logged, null to keep the relations in memory only
+     * @param snapshotInterval seconds between two snapshots of the journal, 0 to only take one on close
+     */
+    public InMemoryXrefOperation(RelationJournal journal, long snapshotInterval) throws IOException {
+        for(int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.journal = journal;
+        if(journal != null) {
+            journal.recover(new RelationJournal.Replay() {
+                public void apply(String tenant, String entitySet, Relation relation) {
+                    EntitySet set = findOrCreateEntitySet(tenant, entitySet);
+                    Relation stored = intern(relation).snapshot();
+                    index(set, set.relationsById.get(stored.getId()), stored);
+                    relationIds.set(Math.max(relationIds.get(), stored.getId()));
+                    for(Relation.Reference reference : stored.getReferences()) {
+                        referenceIds.set(Math.max(referenceIds.get(), reference.getId()));
+                    }
+                }
+            });
+        }
+        if(journal != null && snapshotInterval > 0) {
+            snapshotter = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("xref-snapshot-%d").setDaemon(true).build());
+            snapshotter.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        snapshot();
+                    } catch (IOException | RuntimeException e) {
+                        log.error("Could not write a snapshot, the logs are kept until the next one: "+e.getMessage(), e);
+                    }
+                }
+            }, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        } else {
+            snapshotter = null;
+        }
+    }
+
+    public void setCommonIdGenerator(CommonIdGenerator commonIdGenerator) {
+        this.commonIdGenerator = commonIdGenerator;
+    }
+
+    public Relation findRelation(String entitySet, String tenant, String endpoint, String id) throws EntityNotFoundException {
+        EntitySet set = entitySets.get(createEntitySetKey(tenant, entitySet));
+        Relation relation = set == null ? null : set.relationsByEndpoint.get(CacheAccessor.createEndpointKey(endpoint, id));
+        if(relation == null) {
+            throw new EntityNotFoundException("Could not find Relation with the provided Identifiers");
+        }
+        return relation;
+    }
+
+    public List<RelationLookup> findRelations(String entitySet, String tenant, Relation lookup) {
+        EntitySet set = entitySets.get(createEntitySetKey(tenant, entitySet));
+        List<RelationLookup> results = new ArrayList<RelationLookup>(lookup.getReferences().size());
+        for(Relation.Reference reference : lookup.getReferences()) {
+            Relation relation = set == null ? null
+                    : set.relationsByEndpoint.get(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()));
+            results.add(new RelationLookup(reference.getEndpoint(), reference.getEndpointId(), relation));
+        }
+        return results;
+    }
+
+    public Relation findRelationByCommonId(String commonId, String entitySet, String tenant) throws EntityNotFoundException {
+        EntitySet set = commonId == null ? null : entitySetsByCommonId.get(commonId);
+        Relation relation = set == null ? null : set.relationsByCommonId.get(commonId);
+        if(relation == null) {
+            throw new EntityNotFoundException("Could not find Relation with the provided Identifier");
+        }
+        return relation;
+    }
+
+    /**
+     * Iterates over the relations as they are while it goes, the cursor holds no resources.
+     */
+    public RelationCursor exportRelations(String entitySet, String tenant, Integer after, final Integer limit) throws EntityNotFoundException {
+        EntitySet set = entitySets.get(createEntitySetKey(tenant, entitySet));
+        if(set == null) {
+            throw new EntityNotFoundException("Could not find EntityType with the provided Identifier");
+        }
+        final Iterator<Relation> relations = set.relationsById.tailMap(after != null ? after : 0, false).values().iterator();
+        return new RelationCursor() {
+            private int read;
+
+            public boolean hasNext() {
+                return (limit == null || read < limit) && relations.hasNext();
+            }
+
+            public Relation next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                read++;
+                return relations.next();
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    public Relation createRelation(String entitySet, String tenant, Relation relation) throws EntityNotFoundException {
+        EntitySet set = findOrCreateEntitySet(tenant, entitySet);
+        Map<String, Relation.Reference> references = new LinkedHashMap<String, Relation.Reference>();
+        for(Relation.Reference reference : relation.getReferences()) {
+            references.put(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()), reference);
+        }
+        snapshotLock.readLock().lock();
+        try {
+            synchronized (lock(set)) {
+                for(String key : references.keySet()) {
+                    Relation existing = set.relationsByEndpoint.get(key);
+                    if(existing != null) {
+                        log.info("Attempting to create Relation but a reference already exists with common id "+existing.getCommonId());
+                        return existing;
+                    }
+                }
+                Relation created = RelationFactory.createRelation();
+                created.setId(relationIds.incrementAndGet());
+                created.setCommonId(commonIdGenerator.generate());
+                for(Relation.Reference reference : references.values()) {
+                    created.getReferences().add(createReference(reference.getEndpoint(), reference.getEndpointId()));
+                }
+                return store(set, null, created);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    public Relation updateRelation(String entitySet, String tenant, Relation relation) throws EntityNotFoundException {
+        return putReferences(relation.getCommonId(), relation.getReferences());
+    }
+
+    public Relation addOrUpdateReference(String id, String endpoint, String commonId, String entitySet, String tenant) throws EntityNotFoundException {
+        List<Relation.Reference> references = new ArrayList<Relation.Reference>(1);
+        references.add(RelationFactory.createRelationReference(endpoint, id));
+        return putReferences(commonId, references);
+    }
+
+    /**
+     * Removes every reference of the relation for the endpoint.
+     */
+    public Relation deleteReference(String commonId, String entitySet, String tenant, String endpoint, String endpointId) throws EntityNotFoundException {
+        findRelationByCommonId(commonId, entitySet, tenant);
+        EntitySet set = entitySetsByCommonId.get(commonId);
+        snapshotLock.readLock().lock();
+        try {
+            synchronized (lock(set)) {
+                Relation current = set.relationsByCommonId.get(commonId);
+                Relation relation = copy(current);
+                Iterator<Relation.Reference> references = relation.getReferences().iterator();
+                while(references.hasNext()) {
+                    if(references.next().getEndpoint().equals(endpoint)) {
+                        references.remove();
+                    }
+                }
+                return store(set, current, relation);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies the records one after another, the outcome is the one {@link JDBCXrefOperation#importRelations}
+     * reports for the same chunk.
+     */
+    public void importRelations(String entitySet, String tenant, Map<Long, Relation> records, ImportReport report) {
+        EntitySet set = findOrCreateEntitySet(tenant, entitySet);
+        snapshotLock.readLock().lock();
+        try {
+            synchronized (lock(set)) {
+                for(Map.Entry<Long, Relation> record : records.entrySet()) {
+                    importRecord(set, record.getKey(), record.getValue(), report);
+                }
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private void importRecord(EntitySet set, Long number, Relation record, ImportReport report) {
+        String failure = JDBCXrefOperation.validateImport(record);
+        if(failure != null) {
+            report.failed(number, failure);
+            return;
+        }
+        Relation target = null;
+        List<Relation.Reference> additions = new ArrayList<Relation.Reference>();
+        for(Relation.Reference reference : record.getReferences()) {
+            Relation relation = set.relationsByEndpoint.get(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()));
+            if(relation == null) {
+                additions.add(reference);
+            } else if(target == null) {
+                target = relation;
+            } else if(target != relation) {
+                report.failed(number, "The references belong to different relations, "+target.getCommonId()+" and "+relation.getCommonId());
+                return;
+            }
+        }
+        if(target == null) {
+            Relation created = RelationFactory.createRelation();
+            created.setId(relationIds.incrementAndGet());
+            created.setCommonId(commonIdGenerator.generate());
+            for(Relation.Reference addition : additions) {
+                created.getReferences().add(createReference(addition.getEndpoint(), addition.getEndpointId()));
+            }
+            store(set, null, created);
+            report.created();
+        } else if(additions.isEmpty()) {
+            report.unchanged();
+            return;
+        } else {
+            for(Relation.Reference addition : additions) {
+                for(Relation.Reference reference : target.getReferences()) {
+                    if(reference.getEndpoint().equals(addition.getEndpoint())) {
+                        report.failed(number, "Relation "+target.getCommonId()+" already has a reference for endpoint "+addition.getEndpoint());
+                        return;
+                    }
+                }
+            }
+            Relation extended = copy(target);
+            for(Relation.Reference addition : additions) {
+                extended.getReferences().add(createReference(addition.getEndpoint(), addition.getEndpointId()));
+            }
+            store(set, target, extended);
+            report.extended();
+        }
+        report.referencesInserted(additions.size());
+    }
+
+    /**
+     * Writes a snapshot of every relation to the journal, which then drops the logs it covers.
+     */
+    public void snapshot() throws IOException {
+        if(journal == null) {
+            return;
+        }
+        long sequence;
+        List<RelationJournal.Entry> entries = new ArrayList<RelationJournal.Entry>();
+        snapshotLock.writeLock().lock();
+        try {
+            sequence = journal.rotate();
+            if(sequence == snapshotSequence) {
+                return;
+            }
+            for(EntitySet set : entitySets.values()) {
+                for(Relation relation : set.relationsById.values()) {
+                    entries.add(new RelationJournal.Entry(set.tenant, set.entitySet, relation));
+                }
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        journal.writeSnapshot(sequence, entries);
+        snapshotSequence = sequence;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(journal == null) {
+            return;
+        }
+        if(snapshotter != null) {
+            snapshotter.shutdown();
+            try {
+                snapshotter.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            snapshot();
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Sets the endpoint id of the first reference of each endpoint, adds the references of new endpoints.
+     */
+    private Relation putReferences(String commonId, List<Relation.Reference> references) throws EntityNotFoundException {
+        EntitySet set = commonId == null ? null : entitySetsByCommonId.get(commonId);
+        if(set == null) {
+            throw new EntityNotFoundException("Could not find Relation with the provided Identifier");
+        }
+        snapshotLock.readLock().lock();
+        try {
+            synchronized (lock(set)) {
+                Relation current = set.relationsByCommonId.get(commonId);
+                Relation relation = copy(current);
+                for(Relation.Reference reference : references) {
+                    boolean updated = false;
+                    for(int i = 0; i < relation.getReferences().size() && !updated; i++) {
+                        Relation.Reference existing = relation.getReferences().get(i);
+                        if(existing.getEndpoint().equals(reference.getEndpoint())) {
+                            relation.getReferences().set(i, RelationFactory.createRelationReference(existing.getId(),
+                                    existing.getEndpoint(), reference.getEndpointId()));
+                            updated = true;
+                        }
+                    }
+                    if(!updated) {
+                        relation.getReferences().add(createReference(reference.getEndpoint(), reference.getEndpointId()));
+                    }
+                }
+                return store(set, current, relation);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Logs and applies the new state of a relation, the caller holds the lock of the entity set.
+     *
+     * @return the stored relation
+     */
+    private Relation store(EntitySet set, Relation previous, Relation relation) {
+        for(Relation.Reference reference : relation.getReferences()) {
+            if(reference.getEndpoint() == null || reference.getEndpointId() == null) {
+                throw new IllegalArgumentException("Every reference needs an endpoint and an endpointId");
+            }
+            Relation owner = set.relationsByEndpoint.get(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()));
+            if(owner != null && owner != previous) {
+                throw new DuplicateKeyException("Endpoint id "+reference.getEndpointId()+" of "+reference.getEndpoint()
+                        +" already belongs to relation "+owner.getCommonId());
+            }
+        }
+        Relation stored = relation.snapshot();
+        if(journal != null) {
+            journal.append(set.tenant, set.entitySet, stored);
+        }
+        index(set, previous, stored);
+        return stored;
+    }
+
+    /**
+     * Puts the keys of the relation before it removes the ones it no longer has, so a lookup of a key the
+     * write keeps finds either state of the relation and never misses.
+     */
+    private void index(EntitySet set, Relation previous, Relation relation) {
+        for(Relation.Reference reference : relation.getReferences()) {
+            set.relationsByEndpoint.put(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()), relation);
+        }
+        if(previous != null) {
+            for(Relation.Reference reference : previous.getReferences()) {
+                //the keys that were kept map to the new relation by now and stay
+                set.relationsByEndpoint.remove(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()), previous);
+            }
+        }
+        set.relationsByCommonId.put(relation.getCommonId(), relation);
+        set.relationsById.put(relation.getId(), relation);
+        entitySetsByCommonId.put(relation.getCommonId(), set);
+    }
+
+    private Relation.Reference createReference(String endpoint, String endpointId) {
+        return RelationFactory.createRelationReference(referenceIds.incrementAndGet(), intern(endpoint), endpointId);
+    }
+
+    private Relation copy(Relation relation) {
+        Relation copy = RelationFactory.createRelation();
+        copy.setId(relation.getId());
+        copy.setCommonId(relation.getCommonId());
+        for(Relation.Reference reference : relation.getReferences()) {
+            copy.getReferences().add(RelationFactory.createRelationReference(reference.getId(), reference.getEndpoint(), reference.getEndpointId()));
+        }
+        return copy;
+    }
+
+    private Relation intern(Relation relation) {
+        for(Relation.Reference reference : relation.getReferences()) {
+            reference.setEndpoint(intern(reference.getEndpoint()));
+        }
+        return relation;
+    }
+
+    /**
+     * @return the one instance of the endpoint name, there are few of them and every reference holds one
+     */
+    private String intern(String endpoint) {
+        if(endpoint == null) {
+            return null;
+        }
+        String interned = endpoints.putIfAbsent(endpoint, endpoint);
+        return interned != null ? interned : endpoint;
+    }
+
+    private Object lock(EntitySet set) {
+        return locks[(set.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    private EntitySet findOrCreateEntitySet(String tenant, String entitySet) {
+        String key = createEntitySetKey(tenant, entitySet);
+        EntitySet set = entitySets.get(key);
+        if(set == null) {
+            EntitySet created = new EntitySet(tenant, entitySet);
+            set = entitySets.putIfAbsent(key, created);
+            if(set == null) {
+                set = created;
+            }
+        }
+        return set;
+    }
+
+    private static String createEntitySetKey(String tenant, String entitySet) {
+        return tenant + ":" + entitySet;
+    }
+
+    private static class EntitySet {
+
+        private final String tenant;
+        private final String entitySet;
+        private final ConcurrentMap<String, Relation> relationsByEndpoint = new ConcurrentHashMap<String, Relation>();
+        private final ConcurrentMap<String, Relation> relationsByCommonId = new ConcurrentHashMap<String, Relation>();
+        private final ConcurrentNavigableMap<Integer, Relation> relationsById = new ConcurrentSkipListMap<Integer, Relation>();
+
+        EntitySet(String tenant, String entitySet) {
+            this.tenant = tenant;
+            this.entitySet = entitySet;
+        }
+    }
+}
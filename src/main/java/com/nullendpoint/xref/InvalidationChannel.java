@@ -0,0 +1,24 @@
+package com.nullendpoint.xref;
+
+import java.io.Closeable;
+import java.util.Collection;
+
+/**
+ * Carries cache invalidations between the instances of the service, so a relation written on one of them
+ * is not served stale from the caches of the others. An instance does not receive its own invalidations.
+ */
+public interface InvalidationChannel extends Closeable {
+
+    /**
+     * @param cacheName the tenant:entitySet cache of the keys
+     * @param keys common ids and endpoint keys
+     */
+    void publish(String cacheName, Collection<String> keys);
+
+    void subscribe(Listener listener);
+
+    interface Listener {
+
+        void invalidate(String cacheName, String key);
+    }
+}
@@ -1,69 +1,468 @@
 package com.nullendpoint.xref;
 
-import org.apache.camel.ProducerTemplate;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
-import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
-@Component
 public class JDBCXrefOperation implements XrefOperation {
 
 	private static final Logger log = LoggerFactory.getLogger(JDBCXrefOperation.class);
+	private static final int LOOKUP_CHUNK_SIZE = 500;
+	private static final int RECENT_WRITES_MAX_ENTRIES = 100000;
+	private static final int EXPORT_FETCH_SIZE = 1000;
+
+	/**
+	 * Probes reference through its (entitytype_id, endpoint, endpointid) index, the entity type is
+	 * denormalized onto reference so the probe needs neither relation nor a row lookup.
+	 */
+	static final String SELECT_RELATION_BY_ENDPOINT = "select " + RelationResultSetExtractor.COLUMNS + " from reference probe "
+			+ "inner join relation on relation.id = probe.relation_id "
+			+ "inner join reference on reference.relation_id = relation.id "
+			+ "where probe.entitytype_id = ? and probe.endpoint = ? and probe.endpointid = ? order by relation.id, reference.id";
+
+	/**
+	 * Walks relation through its (entitytype_id) index, which InnoDB extends with the primary key, so
+	 * resuming after a relation id is a range scan.
+	 */
+	static final String SELECT_RELATIONS_AFTER = "select " + RelationResultSetExtractor.COLUMNS + " from relation "
+			+ "left join reference on reference.relation_id = relation.id "
+			+ "where relation.entitytype_id = ? and relation.id > ? order by relation.id, reference.id";
+
+	static final String SELECT_RELATIONS_AFTER_LIMIT = "select " + RelationResultSetExtractor.COLUMNS + " from "
+			+ "(select id from relation where entitytype_id = ? and id > ? order by id limit ?) page "
+			+ "inner join relation on relation.id = page.id "
+			+ "left join reference on reference.relation_id = relation.id order by relation.id, reference.id";
+
+	static final String SELECT_RELATION_BY_COMMON_ID = "select " + RelationResultSetExtractor.COLUMNS + " from relation "
+			+ "left join reference on reference.relation_id = relation.id "
+			+ "where relation.commonid = ? order by relation.id, reference.id";
 	private final JdbcTemplate jdbcTemplate;
-	private final ProducerTemplate producerTemplate;
+	private final TransactionTemplate transactionTemplate;
 	private final CacheAccessor cacheAccessor;
+	private final XrefMetrics metrics;
+	private final RelationLoader relationLoader;
+	private volatile WriteBehindReferenceWriter referenceWriter;
+	private JdbcTemplate readJdbcTemplate;
+	private Cache<String, Boolean> recentWrites;
+	private CommonIdGenerator commonIdGenerator = CommonIdGenerator.TIME_ORDERED;
+	private CommonIdStorage commonIdStorage = CommonIdStorage.TEXT;
+	private final ConcurrentMap<String, Integer> entityTypes = new ConcurrentHashMap<String, Integer>();
 
-	public JDBCXrefOperation(JdbcTemplate jdbcTemplate, ProducerTemplate producerTemplate) {
+	public JDBCXrefOperation(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, CacheAccessor cacheAccessor) {
+		this(jdbcTemplate, transactionTemplate, cacheAccessor, new XrefMetrics(), new RelationLoader());
+	}
+
+	/**
+	 * @param metrics receives the timings of every statement, named after the statement
+	 * @param relationLoader loads the relations that missed the cache
+	 */
+	public JDBCXrefOperation(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, CacheAccessor cacheAccessor,
+			XrefMetrics metrics, RelationLoader relationLoader) {
 		this.jdbcTemplate = jdbcTemplate;
-		this.producerTemplate = producerTemplate;
-		this.cacheAccessor = new CacheAccessor(producerTemplate);
+		this.transactionTemplate = transactionTemplate;
+		this.cacheAccessor = cacheAccessor;
+		this.metrics = metrics;
+		this.relationLoader = relationLoader;
+	}
+
+	/**
+	 * Loads every entity type into memory, so not even the first request of a tenant:entitySet has to look it up.
+	 */
+	public void preloadEntityTypes() {
+		Timer.Context timer = metrics.timeStatement("selectEntityTypes");
+		try {
+			jdbcTemplate.query("select id, tenant, entitytype from entitytype", new RowCallbackHandler() {
+				public void processRow(ResultSet rs) throws SQLException {
+					entityTypes.put(createEntityTypeKey(rs.getString("tenant"), rs.getString("entitytype")), rs.getInt("id"));
+				}
+			});
+		} finally {
+			timer.stop();
+		}
+		log.info("Preloaded "+entityTypes.size()+" entity types");
 	}
 
 
-	public Relation findRelation(String entitySet, String tenant, String endpoint, String endpointId) throws EntityNotFoundException {
+	public Relation findRelation(final String entitySet, final String tenant, final String endpoint, final String endpointId) throws EntityNotFoundException {
+		String cacheName = CacheAccessor.createCacheKey(tenant, entitySet);
+		String endpointKey = CacheAccessor.createEndpointKey(endpoint, endpointId);
+		RelationLoader.Load load = new RelationLoader.Load() {
+			public Relation cached() throws EntityNotFoundException {
+				if(cacheAccessor.isRelationMissingByEndpoint(tenant, entitySet, endpoint, endpointId)) {
+					throw new EntityNotFoundException("Could not find Relation with the provided Identifiers");
+				}
+				return cacheAccessor.getRelationByEndpoint(tenant, entitySet, endpoint, endpointId);
+			}
+
+			public Relation read() throws EntityNotFoundException {
+				Integer entityTypeId = findEntityType(tenant, entitySet);
+				JdbcTemplate template = readTemplate(tenant, entitySet, CacheAccessor.createEndpointKey(endpoint, endpointId));
+				try {
+					return findRelationByEndpointAndEndpointID(template, entityTypeId, endpoint, endpointId);
+				} catch (EntityNotFoundException e) {
+					if(template == jdbcTemplate) {
+						throw e;
+					}
+					//the replica may lag behind, only the primary can tell that the relation is missing
+					return findRelationByEndpointAndEndpointID(jdbcTemplate, entityTypeId, endpoint, endpointId);
+				}
+			}
+
+			public void cache(Relation uncachedRelation) {
+				if(uncachedRelation == null) {
+					cacheAccessor.deleteRelationByEndpoint(tenant, entitySet, endpoint, endpointId);
+					cacheAccessor.putMissingRelationByEndpoint(tenant, entitySet, endpoint, endpointId);
+				} else {
+					cacheAccessor.putRelationByEndpoint(tenant, entitySet, endpoint, endpointId, uncachedRelation);
+				}
+			}
+		};
 		Relation cachedRelation = cacheAccessor.getRelationByEndpoint(tenant, entitySet, endpoint, endpointId);
 		if(cachedRelation != null) {
 			log.debug("Cache hit for endpoint "+endpoint+" and id "+endpointId);
+			relationLoader.refreshIfDue(cacheName, endpointKey, load);
 			return cachedRelation;
 		} else {
+			if(cacheAccessor.isRelationMissingByEndpoint(tenant, entitySet, endpoint, endpointId)) {
+				log.debug("Negative cache hit for endpoint "+endpoint+" and id "+endpointId);
+				throw new EntityNotFoundException("Could not find Relation with the provided Identifiers");
+			}
 			log.debug("Cache miss for endpoint "+endpoint+" and id "+endpointId);
+			return relationLoader.load(cacheName, endpointKey, load);
+		}
+	}
+
+	public List<RelationLookup> findRelations(String entitySet, String tenant, Relation lookup) {
+		List<Relation.Reference> references = lookup.getReferences();
+		Map<String, Relation> relations = cacheAccessor.getRelationsByEndpoint(tenant, entitySet, references);
+		log.debug("Cache hits for "+relations.size()+" of "+references.size()+" endpoint ids");
+
+		List<Relation.Reference> misses = new ArrayList<Relation.Reference>();
+		for(Relation.Reference reference : references) {
+			if(!relations.containsKey(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()))
+					&& !cacheAccessor.isRelationMissingByEndpoint(tenant, entitySet, reference.getEndpoint(), reference.getEndpointId())) {
+				misses.add(reference);
+			}
+		}
+		if(!misses.isEmpty()) {
 			Integer entityTypeId = findEntityType(tenant, entitySet);
-			Relation uncachedRelation = findRelationByEndpointAndEndpointID(entityTypeId, endpoint, endpointId);
-			cacheAccessor.putRelationByEndpoint(tenant, entitySet, endpoint, endpointId, uncachedRelation);
-			return uncachedRelation;
+			if(entityTypeId != null) {
+				for(int i = 0; i < misses.size(); i += LOOKUP_CHUNK_SIZE) {
+					List<Relation.Reference> chunk = misses.subList(i, Math.min(i + LOOKUP_CHUNK_SIZE, misses.size()));
+					String[] keys = new String[chunk.size()];
+					for(int j = 0; j < keys.length; j++) {
+						keys[j] = CacheAccessor.createEndpointKey(chunk.get(j).getEndpoint(), chunk.get(j).getEndpointId());
+					}
+					JdbcTemplate template = readTemplate(tenant, entitySet, keys);
+					Map<String, Relation> uncachedRelations = findRelationsByEndpointAndEndpointIDs(template, entityTypeId, chunk);
+					if(template != jdbcTemplate) {
+						//the replica may lag behind, only the primary can tell that a relation is missing
+						List<Relation.Reference> replicaMisses = new ArrayList<Relation.Reference>();
+						for(Relation.Reference reference : chunk) {
+							if(!uncachedRelations.containsKey(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()))) {
+								replicaMisses.add(reference);
+							}
+						}
+						if(!replicaMisses.isEmpty()) {
+							uncachedRelations.putAll(findRelationsByEndpointAndEndpointIDs(jdbcTemplate, entityTypeId, replicaMisses));
+						}
+					}
+					for(Relation.Reference reference : chunk) {
+						Relation uncachedRelation = uncachedRelations.get(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()));
+						if(uncachedRelation != null) {
+							cacheAccessor.putRelationByEndpoint(tenant, entitySet, reference.getEndpoint(), reference.getEndpointId(), uncachedRelation);
+						} else {
+							cacheAccessor.putMissingRelationByEndpoint(tenant, entitySet, reference.getEndpoint(), reference.getEndpointId());
+						}
+					}
+					relations.putAll(uncachedRelations);
+				}
+			}
 		}
+
+		List<RelationLookup> results = new ArrayList<RelationLookup>(references.size());
+		for(Relation.Reference reference : references) {
+			results.add(new RelationLookup(reference.getEndpoint(), reference.getEndpointId(),
+					relations.get(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()))));
+		}
+		return results;
+	}
+
+	/**
+	 * Opens a cursor over the relations of tenant:entitySet in the order of their ids, bypassing the cache.
+	 * The cursor holds a connection until it is closed, the selectRelationsAfter timer covers that whole time.
+	 *
+	 * @param after id of the last relation already read, null to start from the first
+	 * @param limit relations to read at most, null for all of them
+	 */
+	public RelationCursor exportRelations(String entitySet, String tenant, Integer after, Integer limit) throws EntityNotFoundException {
+		Integer entityTypeId = findEntityType(tenant, entitySet);
+		if(entityTypeId == null) {
+			throw new EntityNotFoundException("Could not find EntityType with the provided Identifier");
+		}
+		JdbcTemplate template = readJdbcTemplate != null ? readJdbcTemplate : jdbcTemplate;
+		Timer.Context timer = metrics.timeStatement("selectRelationsAfter");
+		if(limit != null) {
+			return new JdbcRelationCursor(template, commonIdStorage, EXPORT_FETCH_SIZE, timer, SELECT_RELATIONS_AFTER_LIMIT,
+					entityTypeId, after != null ? after : 0, limit);
+		}
+		return new JdbcRelationCursor(template, commonIdStorage, EXPORT_FETCH_SIZE, timer, SELECT_RELATIONS_AFTER,
+				entityTypeId, after != null ? after : 0);
+	}
+
+	/**
+	 * Imports a chunk of records in one transaction. A record whose references are all new becomes a new
+	 * relation, one whose references lead to an existing relation adds the new ones to it, records of the same
+	 * chunk included. Records whose references lead to different relations, or that would give a relation a
+	 * second reference for an endpoint, fail on their own. If the chunk fails on a constraint, for example
+	 * because of a concurrent write, every record is retried in a transaction of its own.
+	 * <p>
+	 * The relations and references are inserted as one JDBC batch each and the touched keys dropped from the
+	 * caches once committed.
+	 *
+	 * @param records the relations to import by their number in the upload
+	 */
+	public void importRelations(String entitySet, String tenant, final Map<Long, Relation> records, ImportReport report) {
+		final Integer entityTypeId = findOrCreateEntityType(tenant, entitySet);
+		final Set<String> written = new LinkedHashSet<String>();
+		ImportReport chunkReport;
+		try {
+			chunkReport = transactionTemplate.execute(new TransactionCallback<ImportReport>() {
+				public ImportReport doInTransaction(TransactionStatus status) {
+					ImportReport chunkReport = new ImportReport();
+					importChunk(entityTypeId, records, chunkReport, written);
+					return chunkReport;
+				}
+			});
+		} catch (DataIntegrityViolationException e) {
+			if(records.size() == 1) {
+				report.failed(records.keySet().iterator().next(), e.getMostSpecificCause().getMessage());
+				return;
+			}
+			log.warn("Could not import "+records.size()+" records in one transaction, importing them one by one: "+e.getMessage());
+			for(Map.Entry<Long, Relation> record : records.entrySet()) {
+				importRelations(entitySet, tenant, Collections.singletonMap(record.getKey(), record.getValue()), report);
+			}
+			return;
+		}
+		report.add(chunkReport);
+		markWritten(tenant, entitySet, written);
+		cacheAccessor.invalidate(tenant, entitySet, written);
+	}
+
+	private void importChunk(Integer entityTypeId, Map<Long, Relation> records, ImportReport report, Set<String> written) {
+		Map<Long, String> invalid = new HashMap<Long, String>();
+		List<Relation.Reference> references = new ArrayList<Relation.Reference>();
+		for(Map.Entry<Long, Relation> record : records.entrySet()) {
+			String failure = validateImport(record.getValue());
+			if(failure == null) {
+				references.addAll(record.getValue().getReferences());
+			} else {
+				invalid.put(record.getKey(), failure);
+			}
+		}
+		//the relation of every endpoint key of the chunk, one instance per relation
+		Map<String, Relation> relationsByKey = new HashMap<String, Relation>();
+		Map<String, Relation> relationsByCommonId = new HashMap<String, Relation>();
+		for(int i = 0; i < references.size(); i += LOOKUP_CHUNK_SIZE) {
+			List<Relation.Reference> lookup = references.subList(i, Math.min(i + LOOKUP_CHUNK_SIZE, references.size()));
+			for(Map.Entry<String, Relation> existing : findRelationsByEndpointAndEndpointIDs(jdbcTemplate, entityTypeId, lookup).entrySet()) {
+				Relation relation = relationsByCommonId.get(existing.getValue().getCommonId());
+				if(relation == null) {
+					relation = existing.getValue();
+					relationsByCommonId.put(relation.getCommonId(), relation);
+				}
+				relationsByKey.put(existing.getKey(), relation);
+			}
+		}
+
+		List<Relation> newRelations = new ArrayList<Relation>();
+		List<Relation> targets = new ArrayList<Relation>();
+		List<Relation.Reference> additions = new ArrayList<Relation.Reference>();
+		for(Map.Entry<Long, Relation> record : records.entrySet()) {
+			String failure = invalid.get(record.getKey());
+			Relation target = null;
+			Map<String, Relation.Reference> recordAdditions = new LinkedHashMap<String, Relation.Reference>();
+			for(Relation.Reference reference : failure == null ? record.getValue().getReferences() : Collections.<Relation.Reference>emptyList()) {
+				String key = CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId());
+				Relation relation = relationsByKey.get(key);
+				if(relation == null) {
+					recordAdditions.put(key, reference);
+				} else if(target == null) {
+					target = relation;
+				} else if(target != relation) {
+					failure = "The references belong to different relations, "+target.getCommonId()+" and "+relation.getCommonId();
+				}
+			}
+			if(failure == null && target != null) {
+				for(Relation.Reference addition : recordAdditions.values()) {
+					for(Relation.Reference reference : target.getReferences()) {
+						if(reference.getEndpoint().equals(addition.getEndpoint())) {
+							failure = "Relation "+target.getCommonId()+" already has a reference for endpoint "+addition.getEndpoint();
+						}
+					}
+				}
+			}
+			if(failure != null) {
+				report.failed(record.getKey(), failure);
+				continue;
+			}
+			if(target == null) {
+				target = RelationFactory.createRelation();
+				target.setCommonId(commonIdGenerator.generate());
+				newRelations.add(target);
+				report.created();
+			} else if(recordAdditions.isEmpty()) {
+				report.unchanged();
+				continue;
+			} else {
+				if(target.getId() != null) {
+					addKeys(target, written);
+				}
+				report.extended();
+			}
+			for(Map.Entry<String, Relation.Reference> addition : recordAdditions.entrySet()) {
+				Relation.Reference reference = RelationFactory.createRelationReference(addition.getValue().getEndpoint(), addition.getValue().getEndpointId());
+				target.getReferences().add(reference);
+				relationsByKey.put(addition.getKey(), target);
+				targets.add(target);
+				additions.add(reference);
+				written.add(addition.getKey());
+			}
+		}
+
+		insertRelations(entityTypeId, newRelations);
+		List<Object[]> rows = new ArrayList<Object[]>(additions.size());
+		for(int i = 0; i < additions.size(); i++) {
+			rows.add(new Object[] {targets.get(i).getId(), entityTypeId, additions.get(i).getEndpoint(), additions.get(i).getEndpointId()});
+		}
+		Timer.Context timer = metrics.timeStatement("insertReferences");
+		try {
+			jdbcTemplate.batchUpdate("insert into reference (relation_id, entitytype_id, endpoint, endpointid) values (?, ?, ?, ?)", rows);
+		} finally {
+			timer.stop();
+		}
+		report.referencesInserted(rows.size());
+	}
+
+	/**
+	 * Inserts the relations as one batch and reads their ids back through the commonid index.
+	 */
+	private void insertRelations(Integer entityTypeId, List<Relation> relations) {
+		if(relations.isEmpty()) {
+			return;
+		}
+		List<Object[]> rows = new ArrayList<Object[]>(relations.size());
+		for(Relation relation : relations) {
+			//the ids are matched back by the commonid the database returns
+			relation.setCommonId(commonIdStorage.canonical(relation.getCommonId()));
+			rows.add(new Object[] {commonIdStorage.toColumn(relation.getCommonId()), entityTypeId});
+		}
+		Timer.Context timer = metrics.timeStatement("insertRelations");
+		try {
+			jdbcTemplate.batchUpdate("insert into relation (commonid, entitytype_id) values (?, ?)", rows);
+		} finally {
+			timer.stop();
+		}
+		final Map<String, Relation> relationsByCommonId = new HashMap<String, Relation>();
+		for(Relation relation : relations) {
+			relationsByCommonId.put(relation.getCommonId(), relation);
+		}
+		timer = metrics.timeStatement("selectRelationIds");
+		try {
+			for(int i = 0; i < relations.size(); i += LOOKUP_CHUNK_SIZE) {
+				List<Relation> chunk = relations.subList(i, Math.min(i + LOOKUP_CHUNK_SIZE, relations.size()));
+				StringBuilder sql = new StringBuilder("select id, commonid from relation where commonid in (");
+				Object[] params = new Object[chunk.size()];
+				for(int j = 0; j < chunk.size(); j++) {
+					sql.append(j == 0 ? "?" : ", ?");
+					params[j] = commonIdStorage.toColumn(chunk.get(j).getCommonId());
+				}
+				jdbcTemplate.query(sql.append(")").toString(), params, new RowCallbackHandler() {
+					public void processRow(ResultSet rs) throws SQLException {
+						relationsByCommonId.get(commonIdStorage.fromColumn(rs, "commonid")).setId(rs.getInt("id"));
+					}
+				});
+			}
+		} finally {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * @return why the record can not be imported, null if it can
+	 */
+	static String validateImport(Relation record) {
+		if(record.getReferences().isEmpty()) {
+			return "The record has no references";
+		}
+		Set<String> endpoints = new HashSet<String>();
+		for(Relation.Reference reference : record.getReferences()) {
+			if(reference.getEndpoint() == null || reference.getEndpoint().isEmpty()
+					|| reference.getEndpointId() == null || reference.getEndpointId().isEmpty()) {
+				return "Every reference needs an endpoint and an endpointId";
+			}
+			if(reference.getEndpoint().length() > 45 || reference.getEndpointId().length() > 45) {
+				return "Endpoints and endpointIds are at most 45 characters";
+			}
+			if(!endpoints.add(reference.getEndpoint())) {
+				return "The record has more than one reference for endpoint "+reference.getEndpoint();
+			}
+		}
+		return null;
 	}
 
 	public Relation createRelation(final String entitySet, final String tenant, Relation relation) throws EntityNotFoundException {
 		Integer entityTypeId = findOrCreateEntityType(tenant, entitySet);
+		Map<String, Relation.Reference> references = new LinkedHashMap<String, Relation.Reference>();
 		for(Relation.Reference reference : relation.getReferences()) {
-			try {
-				Relation existingRelation = findRelationByEndpointAndEndpointID(entityTypeId, reference.getEndpoint(), reference.getEndpointId());
-				log.info("Attempting to create Relation but reference already exists for "+reference.getEndpoint()+" and ID "+reference.getEndpointId());
-				return existingRelation;
-			} catch (EntityNotFoundException e) {
-				//ignore
-			}
+			references.put(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()), reference);
 		}
-		Integer relationId = saveRelation(entityTypeId);
-		for(Relation.Reference reference : relation.getReferences()) {
-			saveReference(relationId, reference.getEndpoint(), reference.getEndpointId());
+		try {
+			relation = findOrCreateRelation(entityTypeId, new ArrayList<Relation.Reference>(references.values()));
+		} catch (DuplicateKeyException e) {
+			//a concurrent request created one of the references first, its relation is the one to return
+			relation = findExistingRelation(entityTypeId, new ArrayList<Relation.Reference>(references.values()));
+			if(relation == null) {
+				throw e;
+			}
+			log.info("Attempting to create Relation but a concurrent request created it first with common id "+relation.getCommonId());
 		}
-		relation = getRelation(relationId);
+		markWritten(tenant, entitySet, relation);
 		for(Relation.Reference reference : relation.getReferences()) {
 			cacheAccessor.putRelationByEndpoint(tenant, entitySet, reference.getEndpoint(), reference.getEndpointId(), relation);
 		}
@@ -72,33 +471,67 @@ public class JDBCXrefOperation implements XrefOperation {
 
 	public Relation updateRelation(String entitySet, String tenant, Relation relation) throws EntityNotFoundException {
 		Relation currentRelation = getRelationByCommonID(relation.getCommonId());
+		Map<String, Relation.Reference> currentReferences = new HashMap<String, Relation.Reference>();
+		for(Relation.Reference reference : currentRelation.getReferences()) {
+			currentReferences.put(reference.getEndpoint(), reference);
+		}
+		List<Object[]> updates = new ArrayList<Object[]>();
+		Map<String, Relation.Reference> newReferences = new LinkedHashMap<String, Relation.Reference>();
 		for(Relation.Reference reference : relation.getReferences()) {
-			saveOrUpdateReference(currentRelation.getId(), relation.getCommonId(), reference.getEndpoint(), reference.getEndpointId());
+			Relation.Reference currentReference = currentReferences.get(reference.getEndpoint());
+			if(currentReference != null) {
+				updates.add(new Object[] {reference.getEndpoint(), reference.getEndpointId(), currentReference.getId()});
+			} else {
+				newReferences.put(reference.getEndpoint(), reference);
+			}
 		}
-		relation = getRelationByCommonID(relation.getCommonId());
+		updateReferences(updates);
+		if(!newReferences.isEmpty()) {
+			saveReferences(currentRelation.getId(), findEntityTypeOfRelation(currentRelation.getId()),
+					new ArrayList<Relation.Reference>(newReferences.values()));
+		}
+		relation = getRelation(currentRelation.getId());
+		markWritten(tenant, entitySet, currentRelation, relation);
 		for(Relation.Reference reference : relation.getReferences()) {
 			cacheAccessor.putRelationByEndpoint(tenant, entitySet, reference.getEndpoint(), reference.getEndpointId(), relation);
 		}
 		return relation;
 	}
 
-	public Relation findRelationByCommonId(String commonId, String entitySet, String tenant) throws EntityNotFoundException {
+	public Relation findRelationByCommonId(final String commonId, final String entitySet, final String tenant) throws EntityNotFoundException {
+		String cacheName = CacheAccessor.createCacheKey(tenant, entitySet);
+		RelationLoader.Load load = new RelationLoader.Load() {
+			public Relation cached() {
+				return cacheAccessor.getRelationByCommonId(tenant, entitySet, commonId);
+			}
+
+			public Relation read() throws EntityNotFoundException {
+				return getRelationByCommonID(readTemplate(tenant, entitySet, commonId), commonId);
+			}
+
+			public void cache(Relation uncachedRelation) {
+				if(uncachedRelation == null) {
+					cacheAccessor.deleteRelationByCommonId(tenant, entitySet, commonId, null);
+				} else {
+					cacheAccessor.putRelationByCommonId(tenant, entitySet, commonId, uncachedRelation);
+				}
+			}
+		};
 		Relation cachedRelation = cacheAccessor.getRelationByCommonId(tenant, entitySet, commonId);
 		if(cachedRelation != null) {
 			log.debug("Cache hit for common id "+commonId);
+			relationLoader.refreshIfDue(cacheName, commonId, load);
 			return cachedRelation;
 		} else {
 			log.debug("Cache miss for common id "+commonId);
-			Relation uncachedRelation = getRelationByCommonID(commonId);
-			cacheAccessor.putRelationByCommonId(tenant, entitySet, commonId, uncachedRelation);
-			return uncachedRelation;
-
+			return relationLoader.load(cacheName, commonId, load);
 		}
 	}
 
 	public Relation deleteReference(String commonId, String entitySet, String tenant, String endpoint, String endpointId) throws EntityNotFoundException {
 		Relation relation = findRelationByCommonId(commonId, entitySet, tenant);
 		deleteReference(relation.getId(), endpoint);
+		markWritten(tenant, entitySet, relation);
 		cacheAccessor.deleteRelationByEndpoint(tenant, entitySet, endpoint, endpointId);
 		cacheAccessor.deleteRelationByCommonId(tenant,entitySet,commonId, relation);
 		return getRelation(relation.getId());
@@ -106,156 +539,564 @@ public class JDBCXrefOperation implements XrefOperation {
 
 	public Relation addOrUpdateReference(String endpointId, String endpoint,
 			String commonId, String entitySet, String tenant) throws EntityNotFoundException {
-		Relation relation = getRelationByCommonID(commonId);
-		saveOrUpdateReference(relation.getId(), commonId, endpoint, endpointId);
-		relation = getRelation(relation.getId());
+		if(referenceWriter != null) {
+			return addOrUpdateReferenceBehind(endpointId, endpoint, commonId, entitySet, tenant);
+		}
+		Relation previous = getRelationByCommonID(commonId);
+		saveOrUpdateReference(previous, endpoint, endpointId);
+		Relation relation = getRelation(previous.getId());
+		markWritten(tenant, entitySet, previous, relation);
 		cacheAccessor.putRelationByEndpoint(tenant, entitySet, endpoint, endpointId, relation);
 		cacheAccessor.putRelationByCommonId(tenant, entitySet, commonId, relation);
 		return relation;
 	}
 
+	/**
+	 * Acknowledges the reference once it is in the write-ahead log and the cache, the database is written
+	 * by the {@link WriteBehindReferenceWriter}. References added this way have no id until they are written.
+	 */
+	private Relation addOrUpdateReferenceBehind(String endpointId, String endpoint,
+			String commonId, String entitySet, String tenant) throws EntityNotFoundException {
+		Relation current = findRelationByCommonId(commonId, entitySet, tenant);
+		Relation relation = RelationFactory.createRelation();
+		relation.setId(current.getId());
+		relation.setCommonId(current.getCommonId());
+		boolean updated = false;
+		for(Relation.Reference reference : current.getReferences()) {
+			if(!updated && reference.getEndpoint().equals(endpoint)) {
+				relation.getReferences().add(RelationFactory.createRelationReference(reference.getId(), endpoint, endpointId));
+				updated = true;
+			} else {
+				relation.getReferences().add(RelationFactory.createRelationReference(reference.getId(), reference.getEndpoint(), reference.getEndpointId()));
+			}
+		}
+		if(!updated) {
+			relation.getReferences().add(RelationFactory.createRelationReference(endpoint, endpointId));
+		}
+		referenceWriter.submit(tenant, entitySet, commonId, endpoint, endpointId);
+		String cacheName = CacheAccessor.createCacheKey(tenant, entitySet);
+		relationLoader.supersede(cacheName, commonId);
+		relationLoader.supersede(cacheName, CacheAccessor.createEndpointKey(endpoint, endpointId));
+		cacheAccessor.putRelationByEndpoint(tenant, entitySet, endpoint, endpointId, relation);
+		cacheAccessor.putRelationByCommonId(tenant, entitySet, commonId, relation);
+		return relation;
+	}
+
+	/**
+	 * Writes references acknowledged in write-behind mode, all of them in one transaction with one batch per
+	 * relation. The last write of an endpoint wins. If the batch fails on a constraint, every write is retried
+	 * on its own and the ones that still fail are dropped, together with the endpoint ids they had cached.
+	 * Writes of relations that no longer exist are dropped too.
+	 */
+	void applyReferenceWrites(List<ReferenceWrite> writes) {
+		final Map<String, Relation> previousRelations = new HashMap<String, Relation>();
+		List<ReferenceWrite> dropped = new ArrayList<ReferenceWrite>();
+		final Map<String, List<ReferenceWrite>> writesByRelation = new LinkedHashMap<String, List<ReferenceWrite>>();
+		for(ReferenceWrite write : writes) {
+			List<ReferenceWrite> relationWrites = writesByRelation.get(write.getCommonId());
+			if(relationWrites == null) {
+				relationWrites = new ArrayList<ReferenceWrite>();
+				writesByRelation.put(write.getCommonId(), relationWrites);
+			}
+			relationWrites.add(write);
+		}
+		try {
+			transactionTemplate.execute(new TransactionCallback<Void>() {
+				public Void doInTransaction(TransactionStatus status) {
+					for(List<ReferenceWrite> relationWrites : writesByRelation.values()) {
+						applyRelationWrites(relationWrites, previousRelations);
+					}
+					return null;
+				}
+			});
+		} catch (DataIntegrityViolationException e) {
+			log.warn("Could not write "+writes.size()+" references in one batch, writing them one by one: "+e.getMessage());
+			for(final ReferenceWrite write : writes) {
+				try {
+					transactionTemplate.execute(new TransactionCallback<Void>() {
+						public Void doInTransaction(TransactionStatus status) {
+							applyRelationWrites(Collections.singletonList(write), previousRelations);
+							return null;
+						}
+					});
+				} catch (DataIntegrityViolationException writeException) {
+					log.error("Dropping reference write "+write+": "+writeException.getMessage());
+					dropped.add(write);
+				}
+			}
+		}
+		for(ReferenceWrite write : dropped) {
+			cacheAccessor.deleteRelationByEndpoint(write.getTenant(), write.getEntitySet(), write.getEndpoint(), write.getEndpointId());
+		}
+		for(List<ReferenceWrite> relationWrites : writesByRelation.values()) {
+			ReferenceWrite write = relationWrites.get(0);
+			try {
+				Relation relation = getRelationByCommonID(write.getCommonId());
+				Relation previous = previousRelations.get(write.getCommonId());
+				markWritten(write.getTenant(), write.getEntitySet(), previous != null ? previous : relation, relation);
+				for(Relation.Reference reference : relation.getReferences()) {
+					cacheAccessor.putRelationByEndpoint(write.getTenant(), write.getEntitySet(), reference.getEndpoint(), reference.getEndpointId(), relation);
+				}
+				cacheAccessor.putRelationByCommonId(write.getTenant(), write.getEntitySet(), write.getCommonId(), relation);
+			} catch (EntityNotFoundException e) {
+				cacheAccessor.deleteRelationByCommonId(write.getTenant(), write.getEntitySet(), write.getCommonId(), null);
+			}
+		}
+	}
+
+	/**
+	 * @param previousRelations receives the relation as it was before the writes, by common id
+	 */
+	private void applyRelationWrites(List<ReferenceWrite> writes, Map<String, Relation> previousRelations) {
+		ReferenceWrite first = writes.get(0);
+		Relation relation;
+		try {
+			relation = getRelationByCommonID(first.getCommonId());
+		} catch (EntityNotFoundException e) {
+			log.warn("Dropping "+writes.size()+" reference writes, Relation "+first.getCommonId()+" no longer exists");
+			return;
+		}
+		previousRelations.put(first.getCommonId(), relation);
+		Map<String, Relation.Reference> currentReferences = new HashMap<String, Relation.Reference>();
+		for(Relation.Reference reference : relation.getReferences()) {
+			currentReferences.put(reference.getEndpoint(), reference);
+		}
+		Map<String, ReferenceWrite> latestWrites = new LinkedHashMap<String, ReferenceWrite>();
+		for(ReferenceWrite write : writes) {
+			latestWrites.put(write.getEndpoint(), write);
+		}
+		List<Object[]> updates = new ArrayList<Object[]>();
+		List<Relation.Reference> newReferences = new ArrayList<Relation.Reference>();
+		for(ReferenceWrite write : latestWrites.values()) {
+			Relation.Reference currentReference = currentReferences.get(write.getEndpoint());
+			if(currentReference != null) {
+				updates.add(new Object[] {write.getEndpoint(), write.getEndpointId(), currentReference.getId()});
+			} else {
+				newReferences.add(RelationFactory.createRelationReference(write.getEndpoint(), write.getEndpointId()));
+			}
+		}
+		updateReferences(updates);
+		if(!newReferences.isEmpty()) {
+			saveReferences(relation.getId(), findEntityTypeOfRelation(relation.getId()), newReferences);
+		}
+	}
+
+	public void setCommonIdGenerator(CommonIdGenerator commonIdGenerator) {
+		this.commonIdGenerator = commonIdGenerator;
+	}
+
+	/**
+	 * Has to match the type of relation.commonid, see {@link CommonIdStorage}.
+	 */
+	public void setCommonIdStorage(CommonIdStorage commonIdStorage) {
+		this.commonIdStorage = commonIdStorage;
+	}
+
+	/**
+	 * Sends the lookups that miss the cache to the given template, usually on read replicas. For the
+	 * readYourWritesWindow milliseconds after this instance wrote a relation, its lookups by common id or by
+	 * any endpoint id it had before or after the write still go to the primary. Endpoint ids the replicas
+	 * can not find are looked up on the primary before they are remembered as missing.
+	 */
+	public void setReadJdbcTemplate(JdbcTemplate readJdbcTemplate, long readYourWritesWindow) {
+		this.recentWrites = CacheBuilder.newBuilder()
+				.expireAfterWrite(readYourWritesWindow, TimeUnit.MILLISECONDS)
+				.maximumSize(RECENT_WRITES_MAX_ENTRIES)
+				.build();
+		this.readJdbcTemplate = readJdbcTemplate;
+	}
+
+	/**
+	 * Treats the keys the other instances invalidate over the channel as recent writes, so they are read from the
+	 * primary instead of a replica that may not have the write yet, and keeps the loads of them in flight from
+	 * caching what they read before the write. Has to subscribe before the caches do.
+	 */
+	public void setInvalidationChannel(InvalidationChannel invalidationChannel) {
+		invalidationChannel.subscribe(new InvalidationChannel.Listener() {
+			public void invalidate(String cacheName, String key) {
+				if(recentWrites != null) {
+					recentWrites.put(cacheName + "/" + key, Boolean.TRUE);
+				}
+				relationLoader.supersede(cacheName, key);
+			}
+		});
+	}
+
+	/**
+	 * Switches addOrUpdateReference to write-behind mode.
+	 */
+	public void setReferenceWriter(WriteBehindReferenceWriter referenceWriter) {
+		this.referenceWriter = referenceWriter;
+	}
+
+	/**
+	 * @return whether the entity type of the cache named tenant:entitySet was already looked up and exists, without a query
+	 */
+	public boolean hasEntityType(String cacheName) {
+		return entityTypes.containsKey(cacheName);
+	}
+
 	private Integer findOrCreateEntityType(final String tenant, final String entitySet) {
 		Integer entityTypeId = findEntityType(tenant, entitySet);
 		if(entityTypeId == null) {
 			KeyHolder holder = new GeneratedKeyHolder();
-			jdbcTemplate.update(new PreparedStatementCreator() {
-				public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-					PreparedStatement ps = connection.prepareStatement("insert into entitytype (tenant, entitytype) values (?, ?)", new String[] {"id"});
-					ps.setString(1,  tenant);
-					ps.setString(2, entitySet);
-					return ps;
+			Timer.Context timer = metrics.timeStatement("insertEntityType");
+			try {
+				jdbcTemplate.update(new PreparedStatementCreator() {
+					public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+						PreparedStatement ps = connection.prepareStatement("insert into entitytype (tenant, entitytype) values (?, ?)", new String[] {"id"});
+						ps.setString(1,  tenant);
+						ps.setString(2, entitySet);
+						return ps;
+					}
+				}, holder);
+			} catch (DuplicateKeyException e) {
+				//a concurrent request, here or on another instance, created it first
+				entityTypeId = findEntityType(tenant, entitySet);
+				if(entityTypeId == null) {
+					throw e;
 				}
-			}, holder);
+				return entityTypeId;
+			} finally {
+				timer.stop();
+			}
 			entityTypeId = holder.getKey().intValue();
+			entityTypes.put(createEntityTypeKey(tenant, entitySet), entityTypeId);
 		}
 		return entityTypeId;
 	}
 
 	private Integer findEntityType(final String tenant, final String entitySet) {
+		String entityTypeKey = createEntityTypeKey(tenant, entitySet);
+		Integer entityTypeId = entityTypes.get(entityTypeKey);
+		if(entityTypeId != null) {
+			return entityTypeId;
+		}
+		Timer.Context timer = metrics.timeStatement("selectEntityType");
 		try {
-			return getEntityById("select id from entitytype where tenant = ? and entitytype = ?", new Object[] {tenant, entitySet}, new RowMapper<Integer>() {
+			entityTypeId = getEntityById("select id from entitytype where tenant = ? and entitytype = ?", new Object[] {tenant, entitySet}, new RowMapper<Integer>() {
 				public Integer mapRow(ResultSet rs, int rowNum)
 						throws SQLException {
 					return rs.getInt("id");
 				}}, "Could not find EntityType with the provided Identifier");
+			entityTypes.put(entityTypeKey, entityTypeId);
+			return entityTypeId;
 		} catch (EntityNotFoundException e) {
 			return null;
+		} finally {
+			timer.stop();
 		}
 	}
 
-	private Integer saveRelation(final Integer entityTypeId) {
+	private static String createEntityTypeKey(String tenant, String entitySet) {
+		return tenant + ":" + entitySet;
+	}
+
+	private Integer saveRelation(final Integer entityTypeId, final String commonId) {
 		KeyHolder holder = new GeneratedKeyHolder();
-		jdbcTemplate.update(new PreparedStatementCreator() {
-			public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-				PreparedStatement ps = connection.prepareStatement("insert into relation (commonid, entitytype_id) values (?, ?)", new String[] {"id"});
-				ps.setString(1, UUID.randomUUID().toString());
-				ps.setInt(2, entityTypeId);
-				return ps;
-			}
-		}, holder);
+		Timer.Context timer = metrics.timeStatement("insertRelation");
+		try {
+			jdbcTemplate.update(new PreparedStatementCreator() {
+				public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+					PreparedStatement ps = connection.prepareStatement("insert into relation (commonid, entitytype_id) values (?, ?)", new String[] {"id"});
+					ps.setObject(1, commonIdStorage.toColumn(commonId));
+					ps.setInt(2, entityTypeId);
+					return ps;
+				}
+			}, holder);
+		} finally {
+			timer.stop();
+		}
 		return holder.getKey().intValue();
 	}
 
+	/**
+	 * Returns the relation one of the references already belongs to, or creates a new relation with all
+	 * of them. Runs in one transaction, the unique (entitytype_id, endpoint, endpointid) index makes a
+	 * concurrent creation of the same reference fail with a {@link DuplicateKeyException} and roll back.
+	 */
+	private Relation findOrCreateRelation(final Integer entityTypeId, final List<Relation.Reference> references) {
+		return transactionTemplate.execute(new TransactionCallback<Relation>() {
+			public Relation doInTransaction(TransactionStatus status) {
+				Relation existingRelation = findExistingRelation(entityTypeId, references);
+				if(existingRelation != null) {
+					log.info("Attempting to create Relation but a reference already exists with common id "+existingRelation.getCommonId());
+					return existingRelation;
+				}
+				String commonId = commonIdStorage.canonical(commonIdGenerator.generate());
+				Integer relationId = saveRelation(entityTypeId, commonId);
+				List<Integer> referenceIds = saveReferences(relationId, entityTypeId, references);
+				if(referenceIds == null) {
+					try {
+						return getRelation(relationId);
+					} catch (EntityNotFoundException e) {
+						throw new IllegalStateException("Relation "+relationId+" disappeared within its own transaction", e);
+					}
+				}
+				Relation relation = RelationFactory.createRelation();
+				relation.setId(relationId);
+				relation.setCommonId(commonId);
+				for(int i = 0; i < references.size(); i++) {
+					relation.getReferences().add(RelationFactory.createRelationReference(referenceIds.get(i),
+							references.get(i).getEndpoint(), references.get(i).getEndpointId()));
+				}
+				return relation;
+			}
+		});
+	}
+
+	private Relation findExistingRelation(Integer entityTypeId, List<Relation.Reference> references) {
+		if(references.isEmpty()) {
+			return null;
+		}
+		Map<String, Relation> existingRelations = findRelationsByEndpointAndEndpointIDs(jdbcTemplate, entityTypeId, references);
+		return existingRelations.isEmpty() ? null : existingRelations.values().iterator().next();
+	}
+
 	private Integer saveReference(final Integer relationId, final String endpoint, final String endpointId) {
 		KeyHolder holder = new GeneratedKeyHolder();
-		jdbcTemplate.update(new PreparedStatementCreator() {
-			public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-				PreparedStatement ps = connection.prepareStatement("insert into reference (relation_id, endpoint, endpointid) values (?, ?, ?)", new String[] {"id"});
-				ps.setInt(1, relationId);
-				ps.setString(2, endpoint);
-				ps.setString(3, endpointId);
-				return ps;
-			}
-		}, holder);
+		Timer.Context timer = metrics.timeStatement("insertReference");
+		try {
+			jdbcTemplate.update(new PreparedStatementCreator() {
+				public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+					PreparedStatement ps = connection.prepareStatement("insert into reference (relation_id, entitytype_id, endpoint, endpointid) "
+							+ "select id, entitytype_id, ?, ? from relation where id = ?", new String[] {"id"});
+					ps.setString(1, endpoint);
+					ps.setString(2, endpointId);
+					ps.setInt(3, relationId);
+					return ps;
+				}
+			}, holder);
+		} finally {
+			timer.stop();
+		}
 		return holder.getKey().intValue();
 	}
 
+	/**
+	 * @return the entity type the references of the relation have to share, whatever entity set the request named
+	 */
+	private Integer findEntityTypeOfRelation(Integer relationId) {
+		Timer.Context timer = metrics.timeStatement("selectRelationEntityType");
+		try {
+			return jdbcTemplate.queryForObject("select entitytype_id from relation where id = ?", Integer.class, relationId);
+		} finally {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Inserts the references as one JDBC batch, which the MySQL driver sends as a single multi-row insert
+	 * when rewriteBatchedStatements is enabled.
+	 *
+	 * @return the generated ids in the order of the references, or null if the driver did not return one per row
+	 */
+	private List<Integer> saveReferences(final Integer relationId, final Integer entityTypeId, final List<Relation.Reference> references) {
+		Timer.Context timer = metrics.timeStatement("insertReferences");
+		try {
+			return jdbcTemplate.execute(new PreparedStatementCreator() {
+				public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+					return connection.prepareStatement("insert into reference (relation_id, entitytype_id, endpoint, endpointid) values (?, ?, ?, ?)", new String[] {"id"});
+				}
+			}, new PreparedStatementCallback<List<Integer>>() {
+				public List<Integer> doInPreparedStatement(PreparedStatement ps) throws SQLException, DataAccessException {
+					for(Relation.Reference reference : references) {
+						ps.setInt(1, relationId);
+						ps.setInt(2, entityTypeId);
+						ps.setString(3, reference.getEndpoint());
+						ps.setString(4, reference.getEndpointId());
+						ps.addBatch();
+					}
+					ps.executeBatch();
+					List<Integer> referenceIds = new ArrayList<Integer>(references.size());
+					ResultSet keys = ps.getGeneratedKeys();
+					try {
+						while(keys.next()) {
+							referenceIds.add(keys.getInt(1));
+						}
+					} finally {
+						keys.close();
+					}
+					return referenceIds.size() == references.size() ? referenceIds : null;
+				}
+			});
+		} finally {
+			timer.stop();
+		}
+	}
+
 	private Relation getRelation(Integer relationId) throws EntityNotFoundException {
-		return getEntityById("select * from relation where id = ?", new Object[] {relationId}, new RowMapper<Relation>() {
-				public Relation mapRow(ResultSet rs, int rowNum)
-						throws SQLException {
-					Relation relation = RelationFactory.createRelation();
-					relation.setId(rs.getInt("id"));
-					relation.setCommonId(rs.getString("commonid"));
-					relation.getReferences().addAll(getReferences(rs.getInt("id")));
-					return relation;
-				}}, "Could not find Relation with the provided Identifier");
+		return getRelationBy(jdbcTemplate, "select " + RelationResultSetExtractor.COLUMNS + " from relation "
+				+ "left join reference on reference.relation_id = relation.id "
+				+ "where relation.id = ? order by reference.id",
+				new Object[] {relationId}, "selectRelation", "Could not find Relation with the provided Identifier");
 	}
 
 	private Relation getRelationByCommonID(String commonID) throws EntityNotFoundException {
-		return getEntityById("select * from relation where commonid = ?", new Object[] {commonID}, new RowMapper<Relation>() {
-			public Relation mapRow(ResultSet rs, int rowNum)
-					throws SQLException {
-				Relation relation = RelationFactory.createRelation();
-				relation.setId(rs.getInt("id"));
-				relation.setCommonId(rs.getString("commonid"));
-				relation.getReferences().addAll(getReferences(rs.getInt("id")));
-				return relation;
-			}}, "Could not find Relation with the provided Identifier");
-	}
-
-	private List<Relation.Reference> getReferences(Integer relationId) {
-		return jdbcTemplate.query("select * from reference where relation_id = ?",
-				new Object[] { relationId },
-				new RowMapper<Relation.Reference>() {
-					public Relation.Reference mapRow(ResultSet rs, int rowNum)
-							throws SQLException {
-						Relation.Reference reference = RelationFactory.createRelationReference(
-								rs.getInt("id"),
-								rs.getString("endpoint"),
-								rs.getString("endpointid"));
-						return reference;
-					}
-		});
+		return getRelationByCommonID(jdbcTemplate, commonID);
+	}
+
+	private Relation getRelationByCommonID(JdbcTemplate template, String commonID) throws EntityNotFoundException {
+		return getRelationBy(template, SELECT_RELATION_BY_COMMON_ID,
+				new Object[] {commonIdStorage.toColumn(commonID)}, "selectRelationByCommonId", "Could not find Relation with the provided Identifier");
+	}
+
+	private void saveOrUpdateReference(Relation relation, String endpoint, String endpointId) {
+		for(Relation.Reference reference : relation.getReferences()) {
+			if(reference.getEndpoint().equals(endpoint)) {
+				updateReference(reference.getId(), endpoint, endpointId);
+				return;
+			}
+		}
+		Integer referenceId = saveReference(relation.getId(), endpoint, endpointId);
+		relation.getReferences().add(RelationFactory.createRelationReference(referenceId, endpoint, endpointId));
 	}
 
-	private void saveOrUpdateReference(int relationId, String commonID, String endpoint, String endpointId) {
+	/**
+	 * Updates the endpoint and endpoint id of references as one batch, each row holds both plus the reference id.
+	 */
+	private void updateReferences(List<Object[]> updates) {
+		if(updates.isEmpty()) {
+			return;
+		}
+		Timer.Context timer = metrics.timeStatement("updateReferences");
 		try {
-			Relation relation = getRelationByCommonID(commonID);
-			relationId = relation.getId();
-			Relation.Reference reference = findReferenceByEndpointAndCommonID(commonID, endpoint);
-			updateReference(reference.getId(), endpoint, endpointId);
-		} catch (EntityNotFoundException e) {
-			saveReference(relationId, endpoint, endpointId);
+			jdbcTemplate.batchUpdate("update reference set endpoint = ?, endpointid = ? where id = ?", updates);
+		} finally {
+			timer.stop();
 		}
 	}
 
 	private void updateReference(int referenceId, String endpoint, String endpointId) {
-		jdbcTemplate.update("update reference set endpoint = ?, endpointid = ? where id = ?",
-				endpoint, endpointId, referenceId);
+		Timer.Context timer = metrics.timeStatement("updateReference");
+		try {
+			jdbcTemplate.update("update reference set endpoint = ?, endpointid = ? where id = ?",
+					endpoint, endpointId, referenceId);
+		} finally {
+			timer.stop();
+		}
 	}
 
 	private void deleteReference(int relationId, String endpoint) {
-		jdbcTemplate.update("delete from reference where relation_id = ? and endpoint = ?",
-				relationId, endpoint);
+		Timer.Context timer = metrics.timeStatement("deleteReference");
+		try {
+			jdbcTemplate.update("delete from reference where relation_id = ? and endpoint = ?",
+					relationId, endpoint);
+		} finally {
+			timer.stop();
+		}
+	}
+
+	private Relation findRelationByEndpointAndEndpointID(JdbcTemplate template, Integer entityTypeId, String endpoint, String endpointId) throws EntityNotFoundException {
+		return getRelationBy(template, SELECT_RELATION_BY_ENDPOINT,
+				new Object[] {entityTypeId, endpoint, endpointId}, "selectRelationByEndpoint", "Could not find Relation with the provided Identifiers");
 	}
 
-	private Relation.Reference findReferenceByEndpointAndCommonID(String commonID, String endpoint) throws EntityNotFoundException {
-		return getEntityById("select reference.* from reference inner join relation on relation.id = reference.relation_id where commonid = ? and endpoint = ?",
-				new Object[] {commonID, endpoint}, new RowMapper<Relation.Reference>() {
-					public Relation.Reference mapRow(ResultSet rs, int rowNum)
-							throws SQLException {
-						Relation.Reference reference = RelationFactory.createRelationReference(
-								rs.getInt("id"),
-								rs.getString("endpoint"),
-								rs.getString("endpointid"));
-						return reference;
-					}}, "Could not find Reference with the provided Identifier");
+	/**
+	 * Resolves a set of endpoint/endpointId pairs and loads each matching relation with all of its
+	 * references in a single statement.
+	 *
+	 * @return the relations keyed by the endpoint key of the pair that matched them
+	 */
+	private Map<String, Relation> findRelationsByEndpointAndEndpointIDs(JdbcTemplate template, Integer entityTypeId, List<Relation.Reference> references) {
+		StringBuilder sql = new StringBuilder("select " + RelationResultSetExtractor.COLUMNS + ", "
+				+ "probe.endpoint as probe_endpoint, probe.endpointid as probe_endpointid from reference probe "
+				+ "inner join relation on relation.id = probe.relation_id "
+				+ "inner join reference on reference.relation_id = relation.id "
+				+ "where probe.entitytype_id = ? and (");
+		List<Object> params = new ArrayList<Object>(references.size() * 2 + 1);
+		params.add(entityTypeId);
+		for(int i = 0; i < references.size(); i++) {
+			sql.append(i == 0 ? "" : " or ").append("(probe.endpoint = ? and probe.endpointid = ?)");
+			params.add(references.get(i).getEndpoint());
+			params.add(references.get(i).getEndpointId());
+		}
+		sql.append(") order by relation.id, reference.id");
 
+		Timer.Context timer = metrics.timeStatement("selectRelationsByEndpoints");
+		try {
+			return template.query(sql.toString(), params.toArray(), new ResultSetExtractor<Map<String, Relation>>() {
+				public Map<String, Relation> extractData(ResultSet rs) throws SQLException, DataAccessException {
+					Map<String, Relation> relationsByEndpoint = new HashMap<String, Relation>();
+					Map<Integer, Relation> relationsById = new HashMap<Integer, Relation>();
+					Set<Integer> referenceIds = new HashSet<Integer>();
+					while(rs.next()) {
+						Relation relation = RelationResultSetExtractor.addRow(rs, commonIdStorage, relationsById, referenceIds);
+						relationsByEndpoint.put(CacheAccessor.createEndpointKey(rs.getString("probe_endpoint"), rs.getString("probe_endpointid")), relation);
+					}
+					return relationsByEndpoint;
+				}
+			});
+		} finally {
+			timer.stop();
+		}
 	}
 
-	private Relation findRelationByEndpointAndEndpointID(Integer entityTypeId, String endpoint, String endpointId) throws EntityNotFoundException {
-		return getEntityById("select relation.* from reference inner join relation on relation.id = reference.relation_id where entitytype_id = ? and endpoint = ? and endpointid = ?",
-				new Object[] {entityTypeId, endpoint, endpointId}, new RowMapper<Relation>() {
-			public Relation mapRow(ResultSet rs, int rowNum)
-					throws SQLException {
-				Relation relation = RelationFactory.createRelation();
-				relation.setId(rs.getInt("id"));
-				relation.setCommonId(rs.getString("commonid"));
-				relation.getReferences().addAll(getReferences(rs.getInt("id")));
-				return relation;
-			}}, "Could not find Relation with the provided Identifiers");
-		
+	/**
+	 * Loads a relation together with its references, the query must select {@link RelationResultSetExtractor#COLUMNS}.
+	 */
+	private Relation getRelationBy(JdbcTemplate template, String sql, Object[] params, String statement, String errorMessage) throws EntityNotFoundException {
+		List<Relation> relations;
+		Timer.Context timer = metrics.timeStatement(statement);
+		try {
+			relations = template.query(sql, params, new RelationResultSetExtractor(commonIdStorage));
+		} finally {
+			timer.stop();
+		}
+		if(relations.isEmpty()) {
+			throw new EntityNotFoundException(errorMessage);
+		}
+		return relations.get(0);
+	}
+
+	/**
+	 * @return the template for a lookup of the given keys of tenant:entitySet, the primary one when any of them was written recently
+	 */
+	private JdbcTemplate readTemplate(String tenant, String entitySet, String... keys) {
+		if(readJdbcTemplate == null) {
+			return jdbcTemplate;
+		}
+		String cacheName = CacheAccessor.createCacheKey(tenant, entitySet);
+		for(String key : keys) {
+			if(recentWrites.getIfPresent(cacheName + "/" + key) != null) {
+				return jdbcTemplate;
+			}
+		}
+		return readJdbcTemplate;
+	}
+
+	/**
+	 * Records a committed write of a relation, given as it was before and after the write: its common id and
+	 * every endpoint id it had are read from the primary for a while and dropped from the caches of the other instances.
+	 * The loads of them in flight no longer cache what they read, so it has to be called before the write updates the cache.
+	 */
+	private void markWritten(String tenant, String entitySet, Relation... relations) {
+		Set<String> keys = new LinkedHashSet<String>();
+		for(Relation relation : relations) {
+			addKeys(relation, keys);
+		}
+		markWritten(tenant, entitySet, keys);
+	}
+
+	/**
+	 * Records a committed write of the given common ids and endpoint keys.
+	 */
+	private void markWritten(String tenant, String entitySet, Set<String> keys) {
+		String cacheName = CacheAccessor.createCacheKey(tenant, entitySet);
+		for(String key : keys) {
+			if(readJdbcTemplate != null) {
+				recentWrites.put(cacheName + "/" + key, Boolean.TRUE);
+			}
+			relationLoader.supersede(cacheName, key);
+		}
+		cacheAccessor.publishInvalidation(tenant, entitySet, keys);
+	}
+
+	private static void addKeys(Relation relation, Set<String> keys) {
+		keys.add(relation.getCommonId());
+		for(Relation.Reference reference : relation.getReferences()) {
+			keys.add(CacheAccessor.createEndpointKey(reference.getEndpoint(), reference.getEndpointId()));
+		}
 	}
 
 	private <T> T getEntityById(String sql, Object[] ids, RowMapper<T> rowMapper, String errorMessage) throws EntityNotFoundException {
@@ -0,0 +1,129 @@
+package com.nullendpoint.xref;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares invalidations through the cache_invalidation table of the xref database: every instance inserts
+ * the keys it wrote and polls for the rows inserted by the others.
+ * <p>
+ * Ids are handed out before the inserting transaction commits, so a row may become visible after rows
+ * with higher ids. Each poll therefore starts from where the poll a few rounds back ended and skips the
+ * rows it already handled. Rows older than the retention are deleted.
+ */
+public class JdbcInvalidationChannel implements InvalidationChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(JdbcInvalidationChannel.class);
+    private static final int LOOKBACK_POLLS = 10;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String node = UUID.randomUUID().toString();
+    private final long retention;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final Deque<Long> watermarks = new ArrayDeque<Long>();
+    private final Set<Long> handled = new HashSet<Long>();
+    private final ScheduledExecutorService poller;
+    private long lastPurge = System.currentTimeMillis();
+
+    /**
+     * @param pollInterval milliseconds between two polls, 0 to only poll when {@link #poll()} is called
+     * @param retention seconds the rows are kept
+     */
+    public JdbcInvalidationChannel(JdbcTemplate jdbcTemplate, long pollInterval, long retention) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.retention = retention;
+        Long lastId = jdbcTemplate.queryForObject("select max(id) from cache_invalidation", Long.class);
+        watermarks.add(lastId == null ? 0L : lastId);
+        if(pollInterval > 0) {
+            this.poller = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("xref-invalidation-%d").setDaemon(true).build());
+            poller.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        poll();
+                    } catch (RuntimeException e) {
+                        log.error("Could not poll the cache invalidations, retrying with the next poll: "+e.getMessage(), e);
+                    }
+                }
+            }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.poller = null;
+        }
+    }
+
+    @Override
+    public void publish(String cacheName, Collection<String> keys) {
+        List<Object[]> rows = new ArrayList<Object[]>(keys.size());
+        for(String key : keys) {
+            rows.add(new Object[] {node, cacheName, key});
+        }
+        jdbcTemplate.batchUpdate("insert into cache_invalidation (node, cache_name, cache_key) values (?, ?, ?)", rows);
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Hands the rows inserted by other instances since the last polls to the listeners.
+     */
+    synchronized void poll() {
+        final long[] lastId = new long[] {watermarks.peekLast()};
+        jdbcTemplate.query("select id, node, cache_name, cache_key from cache_invalidation where id > ? order by id",
+                new Object[] {watermarks.peekFirst()}, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                long id = rs.getLong("id");
+                lastId[0] = Math.max(lastId[0], id);
+                if(!handled.add(id) || node.equals(rs.getString("node"))) {
+                    return;
+                }
+                for(Listener listener : listeners) {
+                    listener.invalidate(rs.getString("cache_name"), rs.getString("cache_key"));
+                }
+            }
+        });
+        watermarks.addLast(lastId[0]);
+        if(watermarks.size() > LOOKBACK_POLLS) {
+            watermarks.removeFirst();
+            for(Iterator<Long> ids = handled.iterator(); ids.hasNext();) {
+                if(ids.next() <= watermarks.peekFirst()) {
+                    ids.remove();
+                }
+            }
+        }
+        if(System.currentTimeMillis() - lastPurge > retention * 1000) {
+            lastPurge = System.currentTimeMillis();
+            int purged = jdbcTemplate.update("delete from cache_invalidation where created < ?",
+                    new Timestamp(lastPurge - retention * 1000));
+            log.debug("Purged "+purged+" cache invalidations");
+        }
+    }
+
+    @Override
+    public void close() {
+        if(poller != null) {
+            poller.shutdownNow();
+        }
+    }
+}
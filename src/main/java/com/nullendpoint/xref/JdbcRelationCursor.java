@@ -0,0 +1,117 @@
+package com.nullendpoint.xref;
+
+import com.codahale.metrics.Timer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Reads the relations of a query that selects {@link RelationResultSetExtractor#COLUMNS} ordered by relation
+ * id from a forward-only result set, keeping no more than the relation at hand in memory. The connection is
+ * held and the statement timed until the cursor is closed.
+ */
+class JdbcRelationCursor implements RelationCursor {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CommonIdStorage commonIdStorage;
+    private final String sql;
+    private final Timer.Context timer;
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private boolean onRow;
+    private Relation next;
+    private boolean closed;
+
+    /**
+     * @param timer stopped when the cursor is closed, or when it can not be opened
+     */
+    JdbcRelationCursor(JdbcTemplate jdbcTemplate, CommonIdStorage commonIdStorage, int fetchSize, Timer.Context timer, String sql, Object... params) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.commonIdStorage = commonIdStorage;
+        this.sql = sql;
+        this.timer = timer;
+        DataSource dataSource = jdbcTemplate.getDataSource();
+        Connection connection;
+        try {
+            connection = DataSourceUtils.getConnection(dataSource);
+        } catch (RuntimeException e) {
+            timer.stop();
+            throw e;
+        }
+        PreparedStatement statement = null;
+        try {
+            statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            for(int i = 0; i < params.length; i++) {
+                statement.setObject(i + 1, params[i]);
+            }
+            this.resultSet = statement.executeQuery();
+            this.onRow = resultSet.next();
+        } catch (SQLException e) {
+            JdbcUtils.closeStatement(statement);
+            DataSourceUtils.releaseConnection(connection, dataSource);
+            timer.stop();
+            throw jdbcTemplate.getExceptionTranslator().translate("Opening relation cursor", sql, e);
+        }
+        this.connection = connection;
+        this.statement = statement;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(next == null && onRow) {
+            try {
+                Map<Integer, Relation> relations = new HashMap<Integer, Relation>(2);
+                Set<Integer> referenceIds = new HashSet<Integer>();
+                next = RelationResultSetExtractor.addRow(resultSet, commonIdStorage, relations, referenceIds);
+                while((onRow = resultSet.next()) && relations.containsKey(resultSet.getInt("id"))) {
+                    RelationResultSetExtractor.addRow(resultSet, commonIdStorage, relations, referenceIds);
+                }
+            } catch (SQLException e) {
+                close();
+                throw jdbcTemplate.getExceptionTranslator().translate("Reading relation cursor", sql, e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Relation next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Relation relation = next;
+        next = null;
+        return relation;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        onRow = false;
+        JdbcUtils.closeResultSet(resultSet);
+        JdbcUtils.closeStatement(statement);
+        DataSourceUtils.releaseConnection(connection, jdbcTemplate.getDataSource());
+        timer.stop();
+    }
+}
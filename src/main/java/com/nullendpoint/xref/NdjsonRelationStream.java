@@ -0,0 +1,68 @@
+package com.nullendpoint.xref;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Newline-delimited JSON of the relations of a cursor, one line per relation, serialized as they are read.
+ * Closing the stream closes the cursor.
+ */
+public class NdjsonRelationStream extends InputStream {
+
+    private final RelationCursor cursor;
+    private final ObjectWriter writer;
+    private byte[] line = new byte[0];
+    private int position;
+
+    public NdjsonRelationStream(RelationCursor cursor, ObjectWriter writer) {
+        this.cursor = cursor;
+        this.writer = writer;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!fill()) {
+            return -1;
+        }
+        return line[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if(length == 0) {
+            return 0;
+        }
+        if(!fill()) {
+            return -1;
+        }
+        int read = Math.min(length, line.length - position);
+        System.arraycopy(line, position, buffer, offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+
+    /**
+     * @return whether there is something left to read, serializing the next relation when the current line is used up
+     */
+    private boolean fill() throws IOException {
+        if(position < line.length) {
+            return true;
+        }
+        if(!cursor.hasNext()) {
+            return false;
+        }
+        byte[] json = writer.writeValueAsBytes(cursor.next());
+        line = new byte[json.length + 1];
+        System.arraycopy(json, 0, line, 0, json.length);
+        line[json.length] = '\n';
+        position = 0;
+        return true;
+    }
+}
@@ -0,0 +1,53 @@
+package com.nullendpoint.xref;
+
+import org.springframework.boot.actuate.endpoint.Endpoint;
+import org.springframework.boot.actuate.endpoint.mvc.MvcEndpoint;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * /ready on the management port, the readiness probe. Answers 503 until the {@link CacheWarmer} is done,
+ * if there is one. /health is left to the liveness probe and stays UP during the warm-up, so a warm-up
+ * that outlasts the liveness probe does not get the instance restarted.
+ */
+public class ReadinessEndpoint implements MvcEndpoint {
+
+    private final CacheWarmer cacheWarmer;
+
+    /**
+     * @param cacheWarmer null when the caches are not warmed up
+     */
+    public ReadinessEndpoint(CacheWarmer cacheWarmer) {
+        this.cacheWarmer = cacheWarmer;
+    }
+
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<Health> invoke() {
+        Health readiness = cacheWarmer == null ? Health.up().build() : cacheWarmer.readiness();
+        return new ResponseEntity<Health>(readiness,
+                Status.UP.equals(readiness.getStatus()) ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @Override
+    public String getPath() {
+        return "/ready";
+    }
+
+    @Override
+    public boolean isSensitive() {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Class<? extends Endpoint> getEndpointType() {
+        return null;
+    }
+}
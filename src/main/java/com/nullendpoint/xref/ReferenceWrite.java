@@ -0,0 +1,52 @@
+package com.nullendpoint.xref;
+
+/**
+ * A reference addition or update acknowledged in write-behind mode, as recorded in the {@link ReferenceWriteLog}.
+ */
+public class ReferenceWrite {
+
+    private final long sequence;
+    private final String tenant;
+    private final String entitySet;
+    private final String commonId;
+    private final String endpoint;
+    private final String endpointId;
+
+    public ReferenceWrite(long sequence, String tenant, String entitySet, String commonId, String endpoint, String endpointId) {
+        this.sequence = sequence;
+        this.tenant = tenant;
+        this.entitySet = entitySet;
+        this.commonId = commonId;
+        this.endpoint = endpoint;
+        this.endpointId = endpointId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public String getEntitySet() {
+        return entitySet;
+    }
+
+    public String getCommonId() {
+        return commonId;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getEndpointId() {
+        return endpointId;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + tenant + ":" + entitySet + "/" + commonId + "/" + endpoint + "/" + endpointId;
+    }
+}
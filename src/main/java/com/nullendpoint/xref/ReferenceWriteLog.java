@@ -0,0 +1,197 @@
+package com.nullendpoint.xref;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the reference writes acknowledged in write-behind mode, kept in a memory-mapped file
+ * of a fixed size.
+ * <p>
+ * The file starts with two checkpoint slots, each holding the position and sequence of the first write
+ * that is not in the database yet plus a checksum. They are written alternately, so a torn write leaves
+ * the other slot intact. Writes follow as length, sequence, checksum and payload. On open, the writes
+ * from the latest checkpoint are read back for as long as their sequence continues and their checksum
+ * matches. Once every write is checkpointed the log starts over at the front of the file; the sequence
+ * keeps counting, so older writes left behind there are never read back.
+ */
+public class ReferenceWriteLog implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int SLOT_SIZE = 8 + 8 + 4;
+    private static final int DATA_START = 2 * SLOT_SIZE;
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 4;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final boolean sync;
+    private final List<ReferenceWrite> recovered;
+    private int nextSlot;
+    private int checkpointPosition;
+    private long checkpointSequence;
+    private int writePosition;
+    private long nextSequence;
+
+    /**
+     * Opens the log, creating the file when it does not exist, and reads back the writes that were not checkpointed.
+     *
+     * @param sync whether every append is forced to disk before it is acknowledged
+     */
+    public ReferenceWriteLog(File file, int size, boolean sync) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if(directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the directory of the write-ahead log " + file);
+        }
+        this.sync = sync;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        checkpointPosition = DATA_START;
+        checkpointSequence = 1;
+        nextSlot = 0;
+        for(int slot = 0; slot < 2; slot++) {
+            int offset = slot * SLOT_SIZE;
+            long position = buffer.getLong(offset);
+            long sequence = buffer.getLong(offset + 8);
+            if(buffer.getInt(offset + 16) == checksum(position, sequence) && position >= DATA_START
+                    && position <= size && sequence >= checkpointSequence) {
+                checkpointPosition = (int) position;
+                checkpointSequence = sequence;
+                nextSlot = 1 - slot;
+            }
+        }
+        this.recovered = Collections.unmodifiableList(readWrites());
+    }
+
+    /**
+     * @return the writes found after the checkpoint when the log was opened, in the order they were appended
+     */
+    public List<ReferenceWrite> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * @return the appended write, or null when the log has no room left for it
+     */
+    public synchronized ReferenceWrite append(String tenant, String entitySet, String commonId, String endpoint, String endpointId) {
+        byte[][] fields = new byte[][] {encode(tenant), encode(entitySet), encode(commonId), encode(endpoint), encode(endpointId)};
+        int length = 0;
+        for(byte[] field : fields) {
+            length += 4 + (field == null ? 0 : field.length);
+        }
+        if(writePosition + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        for(byte[] field : fields) {
+            if(field == null) {
+                payload.putInt(-1);
+            } else {
+                payload.putInt(field.length);
+                payload.put(field);
+            }
+        }
+        long sequence = nextSequence;
+        ByteBuffer record = buffer.duplicate();
+        record.position(writePosition);
+        record.putInt(length);
+        record.putLong(sequence);
+        record.putInt(checksum(sequence, payload.array()));
+        record.put(payload.array());
+        if(sync) {
+            buffer.force();
+        }
+        writePosition = record.position();
+        nextSequence++;
+        return new ReferenceWrite(sequence, tenant, entitySet, commonId, endpoint, endpointId);
+    }
+
+    /**
+     * Marks every write up to and including the given sequence as written to the database.
+     */
+    public synchronized void checkpoint(long sequence) {
+        while(checkpointPosition < writePosition && checkpointSequence <= sequence) {
+            checkpointPosition += RECORD_HEADER_SIZE + buffer.getInt(checkpointPosition);
+            checkpointSequence++;
+        }
+        if(checkpointPosition == writePosition) {
+            checkpointPosition = DATA_START;
+            writePosition = DATA_START;
+        }
+        int offset = nextSlot * SLOT_SIZE;
+        buffer.putLong(offset, checkpointPosition);
+        buffer.putLong(offset + 8, checkpointSequence);
+        buffer.putInt(offset + 16, checksum(checkpointPosition, checkpointSequence));
+        buffer.force();
+        nextSlot = 1 - nextSlot;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private List<ReferenceWrite> readWrites() {
+        List<ReferenceWrite> writes = new ArrayList<ReferenceWrite>();
+        int position = checkpointPosition;
+        long sequence = checkpointSequence;
+        while(position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if(length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()
+                    || buffer.getLong(position + 4) != sequence) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer record = buffer.duplicate();
+            record.position(position + RECORD_HEADER_SIZE);
+            record.get(payload);
+            if(buffer.getInt(position + 12) != checksum(sequence, payload)) {
+                break;
+            }
+            ByteBuffer fields = ByteBuffer.wrap(payload);
+            writes.add(new ReferenceWrite(sequence, decode(fields), decode(fields), decode(fields), decode(fields), decode(fields)));
+            position += RECORD_HEADER_SIZE + length;
+            sequence++;
+        }
+        writePosition = position;
+        nextSequence = sequence;
+        return writes;
+    }
+
+    private static int checksum(long first, long second) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(16).putLong(first).putLong(second).array());
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(long sequence, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(sequence).array());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(UTF8);
+    }
+
+    private static String decode(ByteBuffer fields) {
+        int length = fields.getInt();
+        if(length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        fields.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
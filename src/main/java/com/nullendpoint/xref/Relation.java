@@ -3,6 +3,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -13,12 +14,14 @@ public class Relation {
 
     private String commonId;
     private List<Reference> references;
+    private boolean frozen;
 
     public Integer getId() {
 		return id;
 	}
 
 	public void setId(Integer id) {
+		checkModifiable(frozen);
 		this.id = id;
 	}
 
@@ -43,6 +46,7 @@ public class Relation {
      *
      */
     public void setCommonId(String value) {
+        checkModifiable(frozen);
         this.commonId = value;
     }
 
@@ -75,6 +79,34 @@ public class Relation {
         return this.references;
     }
 
+    /**
+     * Returns a copy of this relation that can not be modified, neither its references nor any of
+     * their properties, so the same instance can be handed out on every cache hit.
+     */
+    public Relation snapshot() {
+        Relation snapshot = new Relation();
+        snapshot.id = id;
+        snapshot.commonId = commonId;
+        List<Reference> copies = new ArrayList<Reference>(getReferences().size());
+        for (Reference reference : getReferences()) {
+            Reference copy = new Reference();
+            copy.id = reference.id;
+            copy.endpoint = reference.endpoint;
+            copy.endpointId = reference.endpointId;
+            copy.frozen = true;
+            copies.add(copy);
+        }
+        snapshot.references = Collections.unmodifiableList(copies);
+        snapshot.frozen = true;
+        return snapshot;
+    }
+
+    private static void checkModifiable(boolean frozen) {
+        if (frozen) {
+            throw new UnsupportedOperationException("A snapshot of a relation can not be modified, copy it instead");
+        }
+    }
+
 
     /**
      * <p>Java class for anonymous complex type.
@@ -104,12 +136,14 @@ public static class Reference {
 
         private String endpoint;
         private String endpointId;
+        private boolean frozen;
 
         public Integer getId() {
 			return id;
 		}
 
 		public void setId(Integer id) {
+			checkModifiable(frozen);
 			this.id = id;
 		}
 
@@ -134,6 +168,7 @@ public static class Reference {
          *
          */
         public void setEndpoint(String value) {
+            checkModifiable(frozen);
             this.endpoint = value;
         }
 
@@ -150,6 +185,7 @@ public static class Reference {
          *
          */
         public void setEndpointId(String value) {
+            checkModifiable(frozen);
             this.endpointId = value;
         }
 
@@ -0,0 +1,13 @@
+package com.nullendpoint.xref;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Relations read one at a time, holding on to the resources it reads them from until it is closed.
+ */
+public interface RelationCursor extends Iterator<Relation>, Closeable {
+
+    @Override
+    void close();
+}
@@ -0,0 +1,91 @@
+package com.nullendpoint.xref;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.camel.Body;
+import org.apache.camel.Exchange;
+import org.apache.camel.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads an upload line by line and imports it chunk by chunk, so the upload is never held in memory as a
+ * whole and a chunk costs one transaction and a few JDBC batches instead of a round trip per reference.
+ * <p>
+ * A record is a line, either a relation as JSON or, for text/csv, endpoint and endpointId pairs separated
+ * by commas: {@code sso,redfoo,dfs,12334142424}. Blank lines are skipped. A record that can not be read or
+ * imported is reported with its line number and does not stop the others.
+ */
+public class RelationImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(RelationImporter.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final XrefOperation xrefOperation;
+    private final ObjectReader relationReader;
+    private final int chunkSize;
+
+    public RelationImporter(XrefOperation xrefOperation, ObjectReader relationReader, int chunkSize) {
+        this.xrefOperation = xrefOperation;
+        this.relationReader = relationReader;
+        this.chunkSize = chunkSize;
+    }
+
+    public ImportReport importRelations(@Header("entitySet") String entitySet,
+                                        @Header("tenant") String tenant,
+                                        @Header(Exchange.CONTENT_TYPE) String contentType,
+                                        @Body InputStream body) throws IOException {
+        boolean csv = contentType != null && contentType.startsWith("text/csv");
+        ImportReport report = new ImportReport();
+        Map<Long, Relation> chunk = new LinkedHashMap<Long, Relation>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, UTF8));
+        try {
+            long number = 0;
+            String line;
+            while((line = reader.readLine()) != null) {
+                number++;
+                if(line.trim().isEmpty()) {
+                    continue;
+                }
+                report.record();
+                try {
+                    chunk.put(number, csv ? parseCsv(line) : relationReader.<Relation>readValue(line));
+                } catch (IOException | IllegalArgumentException e) {
+                    report.failed(number, "Could not read the record: " + e.getMessage());
+                    continue;
+                }
+                if(chunk.size() == chunkSize) {
+                    xrefOperation.importRelations(entitySet, tenant, chunk, report);
+                    chunk = new LinkedHashMap<Long, Relation>();
+                }
+            }
+            if(!chunk.isEmpty()) {
+                xrefOperation.importRelations(entitySet, tenant, chunk, report);
+            }
+        } finally {
+            reader.close();
+        }
+        log.info("Imported "+report.getRecords()+" records into "+tenant+":"+entitySet+", "+report.getCreated()+" created, "
+                +report.getExtended()+" extended, "+report.getUnchanged()+" unchanged, "+report.getFailed()+" failed");
+        return report;
+    }
+
+    private static Relation parseCsv(String line) {
+        String[] fields = line.split(",", -1);
+        if(fields.length % 2 != 0) {
+            throw new IllegalArgumentException("expected endpoint and endpointId pairs, got " + fields.length + " fields");
+        }
+        Relation relation = RelationFactory.createRelation();
+        for(int i = 0; i < fields.length; i += 2) {
+            relation.getReferences().add(RelationFactory.createRelationReference(fields[i].trim(), fields[i + 1].trim()));
+        }
+        return relation;
+    }
+}
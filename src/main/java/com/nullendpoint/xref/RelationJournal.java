@@ -0,0 +1,356 @@
+package com.nullendpoint.xref;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Durability of the {@link InMemoryXrefOperation}: every write appends the new state of the relation to a log,
+ * and snapshots of all relations let the logs before them go.
+ * <p>
+ * The logs are files named after the sequence of their first record, a record is its length, a checksum and
+ * the sequence followed by the relation. A snapshot is written next to them under a temporary name, forced
+ * to disk and renamed to {@value #SNAPSHOT}, it starts with the sequence of the last record it covers. On
+ * recovery the snapshot is read through a memory mapping and the records after it are replayed from the logs
+ * up to the first one that is incomplete or does not match its checksum.
+ * <p>
+ * An append that fails is cut off the log again, so the appends after it are not lost behind a torn record.
+ * When that fails too the journal takes no more appends until it is recovered again.
+ */
+public class RelationJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RelationJournal.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String SNAPSHOT = "snapshot";
+    private static final String LOG_SUFFIX = ".log";
+    private static final long SNAPSHOT_MAGIC = 0x78726566736e6170L;
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+
+    /**
+     * Receives the relations of the snapshot and of the replayed records, in the order they were written.
+     */
+    public interface Replay {
+
+        void apply(String tenant, String entitySet, Relation relation);
+    }
+
+    /**
+     * A relation as it is written to a snapshot.
+     */
+    public static class Entry {
+
+        private final String tenant;
+        private final String entitySet;
+        private final Relation relation;
+
+        public Entry(String tenant, String entitySet, Relation relation) {
+            this.tenant = tenant;
+            this.entitySet = entitySet;
+            this.relation = relation;
+        }
+    }
+
+    private final File directory;
+    private final boolean sync;
+    private FileChannel channel;
+    private File file;
+    private long sequence;
+    //the end of the last complete record of the log
+    private long position;
+    private IOException failure;
+
+    /**
+     * @param sync whether every append is forced to disk before it returns
+     */
+    public RelationJournal(File directory, boolean sync) throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the directory of the journal " + directory);
+        }
+        this.directory = directory;
+        this.sync = sync;
+    }
+
+    /**
+     * Hands the relations of the snapshot and the logs to the replay and opens a new log for the appends.
+     * Has to be called once, before the first append.
+     */
+    public synchronized void recover(Replay replay) throws IOException {
+        File snapshot = new File(directory, SNAPSHOT);
+        if(snapshot.isFile()) {
+            sequence = readSnapshot(snapshot, replay);
+        }
+        long snapshotSequence = sequence;
+        int replayed = 0;
+        boolean torn = false;
+        for(File logFile : logFiles()) {
+            if(torn) {
+                //nothing after a torn record can be replayed without a gap
+                log.warn("Deleting "+logFile+" which follows a torn record");
+                Files.delete(logFile.toPath());
+                continue;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(logFile.toPath()));
+            int valid = 0;
+            while(buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if(length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                if(checksum != checksum(payload)) {
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.wrap(payload);
+                long recordSequence = record.getLong();
+                if(recordSequence > sequence) {
+                    readRelation(record, replay);
+                    sequence = recordSequence;
+                    replayed++;
+                }
+                valid = buffer.position();
+            }
+            if(valid < buffer.capacity()) {
+                log.warn("Truncating "+logFile+" to its "+valid+" bytes of complete records");
+                FileChannel truncated = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE);
+                try {
+                    truncated.truncate(valid);
+                } finally {
+                    truncated.close();
+                }
+                torn = true;
+            }
+        }
+        log.info("Recovered the relations of "+directory+" up to #"+sequence+", "+replayed+" of them from the logs after snapshot #"+snapshotSequence);
+        openLog();
+    }
+
+    /**
+     * Appends the state of the relation, once this returns it is recovered after a restart.
+     */
+    public synchronized long append(String tenant, String entitySet, Relation relation) {
+        checkWritable();
+        long next = sequence + 1;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(next);
+            writeRelation(out, tenant, entitySet, relation);
+            out.flush();
+            byte[] payload = bytes.toByteArray();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+            record.putInt(payload.length).putInt(checksum(payload)).put(payload).flip();
+            try {
+                write(channel, record);
+                if(sync) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                discardFrom(position);
+                throw e;
+            }
+            position += record.limit();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not append relation "+relation.getCommonId()+" to "+file, e);
+        }
+        sequence = next;
+        return next;
+    }
+
+    /**
+     * Starts a new log for the appends that follow.
+     *
+     * @return the sequence of the last record before the new log, which a snapshot of the current state covers
+     */
+    public synchronized long rotate() throws IOException {
+        checkWritable();
+        channel.force(false);
+        channel.close();
+        openLog();
+        return sequence;
+    }
+
+    /**
+     * Writes the relations as the snapshot up to the given sequence, then deletes the logs it covers.
+     */
+    public void writeSnapshot(long snapshotSequence, List<Entry> entries) throws IOException {
+        File temporary = new File(directory, SNAPSHOT + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.writeLong(SNAPSHOT_MAGIC);
+            out.writeLong(snapshotSequence);
+            out.writeInt(entries.size());
+            for(Entry entry : entries) {
+                writeRelation(out, entry.tenant, entry.entitySet, entry.relation);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        Files.move(temporary.toPath(), new File(directory, SNAPSHOT).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for(File logFile : logFiles()) {
+            //the logs before the one rotate() started hold nothing after the snapshot
+            if(firstSequence(logFile) > snapshotSequence) {
+                break;
+            }
+            if(!logFile.delete()) {
+                log.warn("Could not delete "+logFile+" which snapshot #"+snapshotSequence+" covers");
+            }
+        }
+        log.info("Wrote snapshot #"+snapshotSequence+" of "+entries.size()+" relations to "+directory);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(channel != null) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the whole record to the end of the log.
+     */
+    void write(FileChannel channel, ByteBuffer record) throws IOException {
+        while(record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    private void openLog() throws IOException {
+        file = new File(directory, String.format("%020d", sequence + 1) + LOG_SUFFIX);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        position = channel.size();
+        failure = null;
+    }
+
+    /**
+     * Cuts off what a failed append wrote after the last complete record, or fails the journal.
+     */
+    private void discardFrom(long end) {
+        try {
+            channel.truncate(end);
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("Could not cut "+file+" back to its "+end+" bytes of complete records, rejecting further appends", e);
+            failure = e;
+        }
+    }
+
+    private void checkWritable() {
+        if(failure != null) {
+            throw new IllegalStateException("The journal in "+directory+" failed, a torn record in "+file+" would hide further appends", failure);
+        }
+    }
+
+    /**
+     * @return the logs in the order of their first sequence, a log covers the records up to the first one of the next
+     */
+    private File[] logFiles() {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return new File[0];
+        }
+        File[] logs = new File[files.length];
+        int count = 0;
+        for(File candidate : files) {
+            if(candidate.getName().endsWith(LOG_SUFFIX)) {
+                logs[count++] = candidate;
+            }
+        }
+        logs = Arrays.copyOf(logs, count);
+        Arrays.sort(logs);
+        return logs;
+    }
+
+    private static long firstSequence(File logFile) {
+        String name = logFile.getName();
+        return Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length()));
+    }
+
+    private static long readSnapshot(File snapshot, Replay replay) throws IOException {
+        FileChannel snapshotChannel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = snapshotChannel.map(FileChannel.MapMode.READ_ONLY, 0, snapshotChannel.size());
+            if(buffer.getLong() != SNAPSHOT_MAGIC) {
+                throw new IOException(snapshot + " is not a snapshot of relations");
+            }
+            long snapshotSequence = buffer.getLong();
+            int count = buffer.getInt();
+            for(int i = 0; i < count; i++) {
+                readRelation(buffer, replay);
+            }
+            return snapshotSequence;
+        } catch (BufferUnderflowException e) {
+            throw new IOException(snapshot + " is truncated", e);
+        } finally {
+            snapshotChannel.close();
+        }
+    }
+
+    private static void writeRelation(DataOutputStream out, String tenant, String entitySet, Relation relation) throws IOException {
+        writeString(out, tenant);
+        writeString(out, entitySet);
+        out.writeInt(relation.getId());
+        writeString(out, relation.getCommonId());
+        out.writeInt(relation.getReferences().size());
+        for(Relation.Reference reference : relation.getReferences()) {
+            out.writeInt(reference.getId());
+            writeString(out, reference.getEndpoint());
+            writeString(out, reference.getEndpointId());
+        }
+    }
+
+    private static void readRelation(ByteBuffer buffer, Replay replay) {
+        String tenant = readString(buffer);
+        String entitySet = readString(buffer);
+        Relation relation = RelationFactory.createRelation();
+        relation.setId(buffer.getInt());
+        relation.setCommonId(readString(buffer));
+        int references = buffer.getInt();
+        for(int i = 0; i < references; i++) {
+            int id = buffer.getInt();
+            relation.getReferences().add(RelationFactory.createRelationReference(id, readString(buffer), readString(buffer)));
+        }
+        replay.apply(tenant, entitySet, relation);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
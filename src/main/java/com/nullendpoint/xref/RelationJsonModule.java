@@ -0,0 +1,151 @@
+package com.nullendpoint.xref;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * Streaming serializers for {@link Relation} and its references, writing and reading the same JSON as the
+ * bean serializers without introspecting the properties: {@code {"id": 1, "commonId": "...", "references":
+ * [{"id": 2, "endpoint": "sso", "endpointId": "redfoo"}]}}. Unknown properties are skipped.
+ */
+public class RelationJsonModule extends SimpleModule {
+
+    public RelationJsonModule() {
+        super("xref-relation");
+        addSerializer(Relation.class, new RelationJsonSerializer());
+        addDeserializer(Relation.class, new RelationJsonDeserializer());
+        addSerializer(Relation.Reference.class, new ReferenceJsonSerializer());
+        addDeserializer(Relation.Reference.class, new ReferenceJsonDeserializer());
+    }
+
+    static class RelationJsonSerializer extends StdSerializer<Relation> {
+
+        RelationJsonSerializer() {
+            super(Relation.class);
+        }
+
+        @Override
+        public void serialize(Relation relation, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            writeInteger(generator, "id", relation.getId());
+            generator.writeStringField("commonId", relation.getCommonId());
+            generator.writeArrayFieldStart("references");
+            for (Relation.Reference reference : relation.getReferences()) {
+                writeReference(generator, reference);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    static class ReferenceJsonSerializer extends StdSerializer<Relation.Reference> {
+
+        ReferenceJsonSerializer() {
+            super(Relation.Reference.class);
+        }
+
+        @Override
+        public void serialize(Relation.Reference reference, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            writeReference(generator, reference);
+        }
+    }
+
+    static class RelationJsonDeserializer extends StdDeserializer<Relation> {
+
+        RelationJsonDeserializer() {
+            super(Relation.class);
+        }
+
+        @Override
+        public Relation deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            expectStartObject(parser, context);
+            Relation relation = RelationFactory.createRelation();
+            for (String field = parser.nextFieldName(); field != null; field = parser.nextFieldName()) {
+                JsonToken token = parser.nextToken();
+                if ("id".equals(field)) {
+                    relation.setId(readInteger(parser, token));
+                } else if ("commonId".equals(field)) {
+                    relation.setCommonId(token == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+                } else if ("references".equals(field) && token == JsonToken.START_ARRAY) {
+                    for (token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                        if (token == JsonToken.START_OBJECT) {
+                            relation.getReferences().add(readReference(parser));
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return relation;
+        }
+    }
+
+    static class ReferenceJsonDeserializer extends StdDeserializer<Relation.Reference> {
+
+        ReferenceJsonDeserializer() {
+            super(Relation.Reference.class);
+        }
+
+        @Override
+        public Relation.Reference deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            expectStartObject(parser, context);
+            return readReference(parser);
+        }
+    }
+
+    private static void writeReference(JsonGenerator generator, Relation.Reference reference) throws IOException {
+        generator.writeStartObject();
+        writeInteger(generator, "id", reference.getId());
+        generator.writeStringField("endpoint", reference.getEndpoint());
+        generator.writeStringField("endpointId", reference.getEndpointId());
+        generator.writeEndObject();
+    }
+
+    private static void writeInteger(JsonGenerator generator, String field, Integer value) throws IOException {
+        if (value == null) {
+            generator.writeNullField(field);
+        } else {
+            generator.writeNumberField(field, value);
+        }
+    }
+
+    /**
+     * Reads the fields of a reference whose START_OBJECT is the current token, up to its END_OBJECT.
+     */
+    private static Relation.Reference readReference(JsonParser parser) throws IOException {
+        Relation.Reference reference = new Relation.Reference();
+        for (String field = parser.nextFieldName(); field != null; field = parser.nextFieldName()) {
+            JsonToken token = parser.nextToken();
+            if ("id".equals(field)) {
+                reference.setId(readInteger(parser, token));
+            } else if ("endpoint".equals(field)) {
+                reference.setEndpoint(token == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+            } else if ("endpointId".equals(field)) {
+                reference.setEndpointId(token == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return reference;
+    }
+
+    private static Integer readInteger(JsonParser parser, JsonToken token) throws IOException {
+        return token == JsonToken.VALUE_NULL ? null : Integer.valueOf(parser.getValueAsInt());
+    }
+
+    private static void expectStartObject(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw context.mappingException("Expected an object, got " + parser.getCurrentToken());
+        }
+    }
+}
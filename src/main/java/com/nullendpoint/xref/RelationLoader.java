@@ -0,0 +1,244 @@
+package com.nullendpoint.xref;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads relations that missed the cache. Concurrent loads of the same key in a tenant:entitySet cache
+ * are coalesced, the first caller runs the load and the others wait for its result. The first caller
+ * looks at the cache again before it reads the database, a load that just finished may have filled it.
+ * <p>
+ * A write of a key supersedes the coalesced loads and refreshes of the key in flight, see
+ * {@link #supersede(String, String)}.
+ * They still answer their callers but no longer cache what they read, it may predate the write.
+ * <p>
+ * With refresh-ahead, a hit on an entry that has used up the given fraction of its time-to-live
+ * reloads it in the background, so hot entries are replaced before they expire. Only entries loaded
+ * through this loader are refreshed, as only their age is known.
+ */
+public class RelationLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(RelationLoader.class);
+
+    /**
+     * Reads a relation that missed the cache and caches what it read.
+     */
+    public interface Load {
+        /**
+         * @return the cached relation, null when it is not cached
+         * @throws EntityNotFoundException when the cache remembers the relation as missing
+         */
+        Relation cached() throws EntityNotFoundException;
+
+        /**
+         * Reads the relation from the database, without caching it.
+         */
+        Relation read() throws EntityNotFoundException;
+
+        /**
+         * Caches the relation read, null when it could not be found.
+         */
+        void cache(Relation relation);
+    }
+
+    /**
+     * A load of a key, superseded when the key is written while it runs.
+     */
+    private static final class InFlightLoad {
+        final CompletableFuture<Relation> future = new CompletableFuture<Relation>();
+        boolean superseded;
+    }
+
+    private final ConcurrentMap<String, InFlightLoad> inFlight = new ConcurrentHashMap<String, InFlightLoad>();
+    private final CacheProperties cacheProperties;
+    private final boolean coalesce;
+    private final double refreshAhead;
+    private final XrefMetrics metrics;
+    private final Cache<String, Long> loadedAt;
+    private final ThreadPoolExecutor refreshExecutor;
+
+    /**
+     * Coalesces loads, without refresh-ahead.
+     */
+    public RelationLoader() {
+        this(new CacheProperties(), true, 0, new XrefMetrics());
+    }
+
+    /**
+     * @param coalesce whether concurrent loads of a key share one load
+     * @param refreshAhead fraction of the time-to-live after which a hit refreshes the entry, 0 disables refresh-ahead
+     */
+    public RelationLoader(CacheProperties cacheProperties, boolean coalesce, double refreshAhead, XrefMetrics metrics) {
+        this.cacheProperties = cacheProperties;
+        this.coalesce = coalesce;
+        this.refreshAhead = refreshAhead;
+        this.metrics = metrics;
+        if(refreshAhead > 0) {
+            this.loadedAt = CacheBuilder.newBuilder().maximumSize(cacheProperties.getRefreshMaxEntries()).build();
+            //refreshing is best effort, when the queue is full the entry simply expires
+            this.refreshExecutor = new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(1000),
+                    new ThreadFactoryBuilder().setNameFormat("xref-refresh-%d").setDaemon(true).build(),
+                    new ThreadPoolExecutor.DiscardPolicy());
+        } else {
+            this.loadedAt = null;
+            this.refreshExecutor = null;
+        }
+    }
+
+    public Relation load(String cacheName, String key, Load load) throws EntityNotFoundException {
+        if(!coalesce) {
+            return loadAndRecord(cacheName, key, new InFlightLoad(), load);
+        }
+        String loadKey = createLoadKey(cacheName, key);
+        InFlightLoad current = new InFlightLoad();
+        InFlightLoad existing = inFlight.putIfAbsent(loadKey, current);
+        if(existing != null) {
+            metrics.coalescedLoad(cacheName);
+            return await(existing.future);
+        }
+        return run(cacheName, key, loadKey, current, load, true);
+    }
+
+    /**
+     * Called after a write of the key committed and before the write updates the cache. The loads of the key
+     * in flight no longer cache what they read, later loads start over and the key is not refreshed until it
+     * is loaded again.
+     */
+    public void supersede(String cacheName, String key) {
+        String loadKey = createLoadKey(cacheName, key);
+        InFlightLoad current = inFlight.remove(loadKey);
+        if(current != null) {
+            synchronized (current) {
+                current.superseded = true;
+            }
+        }
+        if(loadedAt != null) {
+            loadedAt.invalidate(loadKey);
+        }
+    }
+
+    /**
+     * Reloads the entry in the background when refresh-ahead is enabled and the entry is due,
+     * unless a load of the key is already in flight.
+     */
+    public void refreshIfDue(final String cacheName, final String key, final Load load) {
+        if(loadedAt == null) {
+            return;
+        }
+        Long loaded = loadedAt.getIfPresent(createLoadKey(cacheName, key));
+        Long timeToLive = cacheProperties.resolve(cacheName).getTimeToLive();
+        if(loaded == null || timeToLive == null
+                || System.nanoTime() - loaded < TimeUnit.SECONDS.toNanos(timeToLive) * refreshAhead) {
+            return;
+        }
+        final String loadKey = createLoadKey(cacheName, key);
+        final InFlightLoad current = new InFlightLoad();
+        if(inFlight.putIfAbsent(loadKey, current) != null) {
+            return;
+        }
+        metrics.refreshAhead(cacheName);
+        try {
+            refreshExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        RelationLoader.this.run(cacheName, key, loadKey, current, load, false);
+                    } catch (EntityNotFoundException e) {
+                        log.debug("Relation for "+key+" disappeared before it was refreshed");
+                    } catch (RuntimeException e) {
+                        log.warn("Could not refresh Relation for "+key+": "+e.getMessage(), e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(loadKey, current);
+            throw e;
+        }
+    }
+
+    public void close() {
+        if(refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param checkCache whether to look at the cache first, a refresh reloads an entry that is cached
+     */
+    private Relation run(String cacheName, String key, String loadKey, InFlightLoad current, Load load, boolean checkCache) throws EntityNotFoundException {
+        try {
+            Relation relation = checkCache ? load.cached() : null;
+            if(relation == null) {
+                relation = loadAndRecord(cacheName, key, current, load);
+            }
+            current.future.complete(relation);
+            return relation;
+        } catch (EntityNotFoundException | RuntimeException e) {
+            current.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(loadKey, current);
+        }
+    }
+
+    private Relation loadAndRecord(String cacheName, String key, InFlightLoad current, Load load) throws EntityNotFoundException {
+        Relation relation;
+        try {
+            relation = load.read();
+        } catch (EntityNotFoundException e) {
+            cacheUnlessSuperseded(cacheName, key, current, load, null);
+            throw e;
+        }
+        cacheUnlessSuperseded(cacheName, key, current, load, relation);
+        return relation;
+    }
+
+    /**
+     * Caches under the lock {@link #supersede(String, String)} takes, so a write either supersedes the load
+     * before it caches or updates the cache after it.
+     */
+    private void cacheUnlessSuperseded(String cacheName, String key, InFlightLoad current, Load load, Relation relation) {
+        synchronized (current) {
+            if(current.superseded) {
+                log.debug("Not caching Relation for "+key+", it was written while it was loaded");
+                return;
+            }
+            load.cache(relation);
+            if(relation != null && loadedAt != null) {
+                loadedAt.put(createLoadKey(cacheName, key), System.nanoTime());
+            }
+        }
+    }
+
+    private Relation await(CompletableFuture<Relation> future) throws EntityNotFoundException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a Relation to be loaded", e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof EntityNotFoundException) {
+                throw new EntityNotFoundException(e.getCause().getMessage());
+            }
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static String createLoadKey(String cacheName, String key) {
+        return cacheName + "/" + key;
+    }
+}
@@ -0,0 +1,54 @@
+package com.nullendpoint.xref;
+
+/**
+ * Result of resolving a single endpoint/endpointId pair as part of a bulk lookup.
+ * The relation is only present when the pair could be resolved.
+ */
+public class RelationLookup {
+
+    private String endpoint;
+    private String endpointId;
+    private boolean found;
+    private Relation relation;
+
+    public RelationLookup(){}
+
+    public RelationLookup(String endpoint, String endpointId, Relation relation){
+        this.endpoint = endpoint;
+        this.endpointId = endpointId;
+        this.relation = relation;
+        this.found = relation != null;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getEndpointId() {
+        return endpointId;
+    }
+
+    public void setEndpointId(String endpointId) {
+        this.endpointId = endpointId;
+    }
+
+    public boolean isFound() {
+        return found;
+    }
+
+    public void setFound(boolean found) {
+        this.found = found;
+    }
+
+    public Relation getRelation() {
+        return relation;
+    }
+
+    public void setRelation(Relation relation) {
+        this.relation = relation;
+    }
+}
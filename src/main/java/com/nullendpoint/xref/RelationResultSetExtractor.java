@@ -0,0 +1,63 @@
+package com.nullendpoint.xref;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups the rows of a relation joined to its references into {@link Relation} objects, so a
+ * relation and all of its references are loaded with a single statement.
+ * <p>
+ * Queries must select {@link #COLUMNS} and should be ordered by relation id. Relations without
+ * references are supported through a left join, the reference columns are then null.
+ */
+class RelationResultSetExtractor implements ResultSetExtractor<List<Relation>> {
+
+    static final String COLUMNS = "relation.id, relation.commonid, reference.id as reference_id, reference.endpoint, reference.endpointid";
+
+    private final CommonIdStorage commonIdStorage;
+
+    RelationResultSetExtractor(CommonIdStorage commonIdStorage) {
+        this.commonIdStorage = commonIdStorage;
+    }
+
+    @Override
+    public List<Relation> extractData(ResultSet rs) throws SQLException, DataAccessException {
+        Map<Integer, Relation> relations = new LinkedHashMap<Integer, Relation>();
+        Set<Integer> referenceIds = new HashSet<Integer>();
+        while(rs.next()) {
+            addRow(rs, commonIdStorage, relations, referenceIds);
+        }
+        return new ArrayList<Relation>(relations.values());
+    }
+
+    /**
+     * Adds the current row to the relation it belongs to, creating the relation on its first row.
+     * References that were already added through another row are skipped.
+     */
+    static Relation addRow(ResultSet rs, CommonIdStorage commonIdStorage, Map<Integer, Relation> relations, Set<Integer> referenceIds) throws SQLException {
+        Relation relation = relations.get(rs.getInt("id"));
+        if(relation == null) {
+            relation = RelationFactory.createRelation();
+            relation.setId(rs.getInt("id"));
+            relation.setCommonId(commonIdStorage.fromColumn(rs, "commonid"));
+            relations.put(relation.getId(), relation);
+        }
+        int referenceId = rs.getInt("reference_id");
+        if(!rs.wasNull() && referenceIds.add(referenceId)) {
+            relation.getReferences().add(RelationFactory.createRelationReference(
+                    referenceId,
+                    rs.getString("endpoint"),
+                    rs.getString("endpointid")));
+        }
+        return relation;
+    }
+}
@@ -0,0 +1,115 @@
+package com.nullendpoint.xref;
+
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary form of a {@link Relation} for the off-heap cache tier.
+ * <p>
+ * Layout: relation id, commonId, reference count, then id, endpoint and endpointId for every
+ * reference. Ids are 4 byte ints, strings are a 4 byte length followed by UTF-8 bytes, and -1
+ * stands for null in both.
+ */
+public class RelationSerializer implements Serializer<Relation> {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public RelationSerializer(ClassLoader classLoader) {
+    }
+
+    @Override
+    public ByteBuffer serialize(Relation relation) throws SerializerException {
+        byte[] commonId = encode(relation.getCommonId());
+        List<byte[]> strings = new ArrayList<byte[]>(relation.getReferences().size() * 2);
+        int size = 4 + 4 + length(commonId) + 4;
+        for (Relation.Reference reference : relation.getReferences()) {
+            byte[] endpoint = encode(reference.getEndpoint());
+            byte[] endpointId = encode(reference.getEndpointId());
+            strings.add(endpoint);
+            strings.add(endpointId);
+            size += 4 + 4 + length(endpoint) + 4 + length(endpointId);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        writeId(buffer, relation.getId());
+        writeString(buffer, commonId);
+        buffer.putInt(relation.getReferences().size());
+        int i = 0;
+        for (Relation.Reference reference : relation.getReferences()) {
+            writeId(buffer, reference.getId());
+            writeString(buffer, strings.get(i++));
+            writeString(buffer, strings.get(i++));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public Relation read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+        ByteBuffer buffer = binary.duplicate();
+        Relation relation = RelationFactory.createRelation();
+        relation.setId(readId(buffer));
+        relation.setCommonId(readString(buffer));
+        int count = buffer.getInt();
+        List<Relation.Reference> references = relation.getReferences();
+        for (int i = 0; i < count; i++) {
+            Relation.Reference reference = new Relation.Reference();
+            reference.setId(readId(buffer));
+            reference.setEndpoint(readString(buffer));
+            reference.setEndpointId(readString(buffer));
+            references.add(reference);
+        }
+        return relation.snapshot();
+    }
+
+    @Override
+    public boolean equals(Relation relation, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+        return serialize(relation).equals(binary.duplicate());
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(UTF8);
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static void writeId(ByteBuffer buffer, Integer id) {
+        buffer.putInt(id == null ? -1 : id);
+    }
+
+    private static Integer readId(ByteBuffer buffer) {
+        int id = buffer.getInt();
+        return id == -1 ? null : id;
+    }
+
+    private static void writeString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length);
+            buffer.put(value);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (buffer.hasArray()) {
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
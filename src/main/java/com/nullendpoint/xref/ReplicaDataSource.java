@@ -0,0 +1,92 @@
+package com.nullendpoint.xref;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands out connections to the read replicas in turn. A replica that fails to give a connection is left
+ * out for the retry interval and the next one is tried; when none is left the primary serves the read.
+ */
+public class ReplicaDataSource extends AbstractDataSource implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaDataSource.class);
+
+    private final List<DataSource> replicas;
+    private final DataSource primary;
+    private final long retryInterval;
+    private final XrefMetrics metrics;
+    private final AtomicLongArray downUntil;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param retryInterval milliseconds a failed replica is left out
+     */
+    public ReplicaDataSource(List<DataSource> replicas, DataSource primary, long retryInterval, XrefMetrics metrics) {
+        this.replicas = new ArrayList<DataSource>(replicas);
+        this.primary = primary;
+        this.retryInterval = retryInterval;
+        this.metrics = metrics;
+        this.downUntil = new AtomicLongArray(replicas.size());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(null, null);
+    }
+
+    /**
+     * @param username null to connect with the credentials each pool was configured with
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        int start = Math.floorMod(next.getAndIncrement(), Math.max(replicas.size(), 1));
+        for(int i = 0; i < replicas.size(); i++) {
+            int replica = (start + i) % replicas.size();
+            if(downUntil.get(replica) > System.currentTimeMillis()) {
+                continue;
+            }
+            try {
+                Connection connection = connect(replicas.get(replica), username, password);
+                downUntil.set(replica, 0);
+                return connection;
+            } catch (SQLException e) {
+                log.warn("Leaving out read replica "+replica+" for "+retryInterval+"ms: "+e.getMessage());
+                downUntil.set(replica, System.currentTimeMillis() + retryInterval);
+                metrics.replicaFailure(replica);
+            }
+        }
+        metrics.replicaFallback();
+        return connect(primary, username, password);
+    }
+
+    private static Connection connect(DataSource dataSource, String username, String password) throws SQLException {
+        return username == null ? dataSource.getConnection() : dataSource.getConnection(username, password);
+    }
+
+    /**
+     * @return whether the replica is currently left out after a failure
+     */
+    public boolean isDown(int replica) {
+        return downUntil.get(replica) > System.currentTimeMillis();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for(DataSource replica : replicas) {
+            if(replica instanceof Closeable) {
+                ((Closeable) replica).close();
+            }
+        }
+    }
+}
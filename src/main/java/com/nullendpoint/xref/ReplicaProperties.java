@@ -0,0 +1,73 @@
+package com.nullendpoint.xref;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read replicas for the lookups that miss the cache, bound from xref.replicas. Without urls every
+ * statement goes to spring.datasource.
+ */
+@ConfigurationProperties(prefix = "xref.replicas")
+public class ReplicaProperties {
+
+    private List<String> urls = new ArrayList<String>();
+
+    /**
+     * Credentials of the replicas, those of spring.datasource when empty.
+     */
+    private String username;
+
+    private String password;
+
+    /**
+     * Milliseconds a replica that refused a connection is left out before it is tried again.
+     */
+    private long retryInterval = 30000;
+
+    /**
+     * Milliseconds after a write during which lookups of the written relation go to the primary.
+     */
+    private long readYourWritesWindow = 5000;
+
+    public List<String> getUrls() {
+        return urls;
+    }
+
+    public void setUrls(List<String> urls) {
+        this.urls = urls;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public long getRetryInterval() {
+        return retryInterval;
+    }
+
+    public void setRetryInterval(long retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    public long getReadYourWritesWindow() {
+        return readYourWritesWindow;
+    }
+
+    public void setReadYourWritesWindow(long readYourWritesWindow) {
+        this.readYourWritesWindow = readYourWritesWindow;
+    }
+}
@@ -0,0 +1,116 @@
+package com.nullendpoint.xref;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acknowledges reference writes once they are in the {@link ReferenceWriteLog} and writes them to the
+ * database in the background, batch by batch, checkpointing the log after every batch.
+ * <p>
+ * Writes left in the log by a crash are replayed when the writer is created, before any new write is
+ * accepted. When the log is full, the write waits for a flush to make room.
+ */
+public class WriteBehindReferenceWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindReferenceWriter.class);
+    private static final int MAX_APPEND_ATTEMPTS = 3;
+
+    private final ReferenceWriteLog writeLog;
+    private final JDBCXrefOperation operation;
+    private final int batchSize;
+    private final List<ReferenceWrite> pending = new ArrayList<ReferenceWrite>();
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * @param flushInterval milliseconds between two flushes of the pending writes
+     */
+    public WriteBehindReferenceWriter(ReferenceWriteLog writeLog, JDBCXrefOperation operation, int batchSize, long flushInterval) {
+        this.writeLog = writeLog;
+        this.operation = operation;
+        this.batchSize = batchSize;
+        if(!writeLog.getRecovered().isEmpty()) {
+            log.info("Replaying "+writeLog.getRecovered().size()+" reference writes from the write-ahead log");
+            pending.addAll(writeLog.getRecovered());
+            flush();
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("xref-write-behind-%d").setDaemon(true).build());
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    log.error("Could not write the pending references, retrying with the next flush: "+e.getMessage(), e);
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records the write in the log. Once this returns the write survives a crash and will reach the database.
+     */
+    public void submit(String tenant, String entitySet, String commonId, String endpoint, String endpointId) {
+        for(int attempt = 0; attempt < MAX_APPEND_ATTEMPTS; attempt++) {
+            synchronized (pending) {
+                ReferenceWrite write = writeLog.append(tenant, entitySet, commonId, endpoint, endpointId);
+                if(write != null) {
+                    pending.add(write);
+                    return;
+                }
+            }
+            log.info("The write-ahead log is full, flushing before accepting more writes");
+            flush();
+        }
+        throw new IllegalStateException("The write-ahead log has no room for another reference write");
+    }
+
+    /**
+     * Writes every pending write to the database. Writes that could not be written stay pending.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            List<ReferenceWrite> writes;
+            synchronized (pending) {
+                writes = new ArrayList<ReferenceWrite>(pending);
+                pending.clear();
+            }
+            for(int i = 0; i < writes.size(); i += batchSize) {
+                List<ReferenceWrite> batch = writes.subList(i, Math.min(i + batchSize, writes.size()));
+                try {
+                    operation.applyReferenceWrites(batch);
+                } catch (RuntimeException e) {
+                    synchronized (pending) {
+                        pending.addAll(0, writes.subList(i, writes.size()));
+                    }
+                    throw e;
+                }
+                writeLog.checkpoint(batch.get(batch.size() - 1).getSequence());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(30, TimeUnit.SECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Could not write the pending references before shutdown, they are replayed on the next start: "+e.getMessage(), e);
+        } finally {
+            writeLog.close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.nullendpoint.xref;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+
+import java.io.IOException;
+
+/**
+ * The one Jackson configuration of the service, shared by the REST binding, the routes, the JSON cache values,
+ * export and import. Relations go through {@link RelationJsonModule}, the other bodies through accessors
+ * Afterburner generates. A mapper caches the serializers it resolves, so sharing it and using it once when
+ * the class loads keeps that work out of the requests.
+ */
+public final class XrefJson {
+
+    private static final ObjectMapper MAPPER = createMapper();
+
+    private XrefJson() {
+    }
+
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    /**
+     * @return a new mapper configured like the shared one, warmed up
+     */
+    static ObjectMapper createMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new AfterburnerModule());
+        mapper.registerModule(new RelationJsonModule());
+        Relation relation = RelationFactory.createRelation();
+        relation.setCommonId("ace664a0-1d28-412a-9ea5-0bbf5739f4ce");
+        relation.getReferences().add(RelationFactory.createRelationReference(1, "sso", "redfoo"));
+        try {
+            mapper.readValue(mapper.writeValueAsBytes(relation), Relation.class);
+            mapper.readValue(mapper.writeValueAsBytes(new RelationLookup("sso", "redfoo", relation)), RelationLookup.class);
+            mapper.readValue(mapper.writeValueAsBytes(new SimpleResponse("ok")), SimpleResponse.class);
+            mapper.writeValueAsBytes(new ImportReport());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not warm up the JSON mapper", e);
+        }
+        return mapper;
+    }
+}
@@ -0,0 +1,120 @@
+package com.nullendpoint.xref;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Records the cache and JDBC metrics of the xref service in a Dropwizard {@link MetricRegistry}.
+ * Spring Boot publishes the registry on /metrics and /prometheus of the management port.
+ * <p>
+ * Cache metrics are named xref.cache.&lt;tenant:entitySet&gt;.&lt;event&gt;, statement timers
+ * xref.jdbc.&lt;statement&gt;, read replica failures xref.replica.&lt;index&gt;.failure. Route latencies
+ * are recorded by the Camel route policy. The tenant:entitySet of a cache comes from the request URL,
+ * so with {@link #setCacheNames(CacheNames)} the caches that are not known share xref.cache.other.&lt;event&gt;.
+ */
+public class XrefMetrics {
+
+    private static final String OTHER_CACHES = "other";
+
+    /**
+     * Tells the caches that get metrics of their own.
+     */
+    public interface CacheNames {
+
+        boolean isKnown(String cacheName);
+    }
+
+    private final MetricRegistry registry;
+    private volatile CacheNames cacheNames;
+
+    /**
+     * Records into a registry of its own, for use outside of the Spring context.
+     */
+    public XrefMetrics() {
+        this(new MetricRegistry());
+    }
+
+    public XrefMetrics(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void cacheHits(String cacheName, long count) {
+        if(count > 0) {
+            registry.meter(MetricRegistry.name("xref.cache", cacheMetricName(cacheName), "hit")).mark(count);
+        }
+    }
+
+    public void cacheMisses(String cacheName, long count) {
+        if(count > 0) {
+            registry.meter(MetricRegistry.name("xref.cache", cacheMetricName(cacheName), "miss")).mark(count);
+        }
+    }
+
+    public void negativeCacheHit(String cacheName) {
+        registry.meter(MetricRegistry.name("xref.cache", cacheMetricName(cacheName), "negative-hit")).mark();
+    }
+
+    public void cacheEviction(String cacheName) {
+        registry.meter(MetricRegistry.name("xref.cache", cacheMetricName(cacheName), "eviction")).mark();
+    }
+
+    public void cacheExpiry(String cacheName) {
+        registry.meter(MetricRegistry.name("xref.cache", cacheMetricName(cacheName), "expiry")).mark();
+    }
+
+    public void coalescedLoad(String cacheName) {
+        registry.meter(MetricRegistry.name("xref.cache", cacheMetricName(cacheName), "coalesced-load")).mark();
+    }
+
+    public void refreshAhead(String cacheName) {
+        registry.meter(MetricRegistry.name("xref.cache", cacheMetricName(cacheName), "refresh-ahead")).mark();
+    }
+
+    /**
+     * A key dropped on behalf of another instance that wrote the relation.
+     */
+    public void remoteInvalidation(String cacheName) {
+        registry.meter(MetricRegistry.name("xref.cache", cacheMetricName(cacheName), "remote-invalidation")).mark();
+    }
+
+    public void replicaFailure(int replica) {
+        registry.meter(MetricRegistry.name("xref.replica", String.valueOf(replica), "failure")).mark();
+    }
+
+    /**
+     * A read that found no replica available and went to the primary.
+     */
+    public void replicaFallback() {
+        registry.meter(MetricRegistry.name("xref.replica", "fallback")).mark();
+    }
+
+    /**
+     * A batch of lookups that arrived as separate messages and are resolved together.
+     */
+    public void lookupBatch(int size) {
+        registry.histogram(MetricRegistry.name("xref.messaging", "lookup-batch")).update(size);
+    }
+
+    /**
+     * Starts timing a statement, the returned context has to be stopped once the statement completed.
+     */
+    public Timer.Context timeStatement(String statement) {
+        return registry.timer(MetricRegistry.name("xref.jdbc", statement)).time();
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Records the metrics of the caches that are not known under one name, every cache gets its own until this is set.
+     */
+    public void setCacheNames(CacheNames cacheNames) {
+        this.cacheNames = cacheNames;
+    }
+
+    private String cacheMetricName(String cacheName) {
+        CacheNames known = cacheNames;
+        return known == null || known.isKnown(cacheName) ? cacheName : OTHER_CACHES;
+    }
+}
@@ -1,5 +1,8 @@
 package com.nullendpoint.xref;
 
+import java.util.List;
+import java.util.Map;
+
 public interface XrefOperation {
 
 	public Relation addOrUpdateReference(String id,
@@ -23,6 +26,31 @@ public interface XrefOperation {
                                  String endpoint,
                                  String id) throws EntityNotFoundException;
 
+	public List<RelationLookup> findRelations(String entitySet,
+                                              String tenant,
+                                              Relation lookup);
+
+	/**
+	 * @param after id of the last relation already read, null to start from the first
+	 * @param limit relations to read at most, null for all of them
+	 * @return the relations of the entity set in the order of their ids, the cursor has to be closed
+	 */
+	public RelationCursor exportRelations(String entitySet,
+                                          String tenant,
+                                          Integer after,
+                                          Integer limit) throws EntityNotFoundException;
+
+	/**
+	 * Imports a chunk of records in one transaction, see {@link RelationImporter}.
+	 *
+	 * @param records the relations to import by their number in the upload
+	 * @param report  receives the outcome of the chunk once it is committed
+	 */
+	public void importRelations(String entitySet,
+                                String tenant,
+                                Map<Long, Relation> records,
+                                ImportReport report);
+
 	public Relation findRelationByCommonId(String commonId,
                                            String entitySet,
                                            String tenant) throws EntityNotFoundException;
@@ -2,22 +2,23 @@ package com.nullendpoint.xref;
 
 import org.apache.camel.Body;
 import org.apache.camel.Header;
-import org.apache.camel.ProducerTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Created by swinches on 24/05/17.
  */
 @Component
 public class XrefOperationImpl implements XrefOperation {
 
-    private JDBCXrefOperation xrefOperation;
+    private XrefOperation xrefOperation;
 
     @Autowired
-    public XrefOperationImpl(JdbcTemplate jdbcTemplate, ProducerTemplate producerTemplate) {
-        xrefOperation = new JDBCXrefOperation(jdbcTemplate, producerTemplate);
+    public XrefOperationImpl(XrefOperation xrefOperation) {
+        this.xrefOperation = xrefOperation;
     }
 
 
@@ -55,6 +56,29 @@ public class XrefOperationImpl implements XrefOperation {
         return xrefOperation.findRelation(entitySet, tenant, endpoint, id);
     }
 
+    @Override
+    public List<RelationLookup> findRelations(@Header("entitySet") String entitySet,
+                                              @Header("tenant") String tenant,
+                                              @Body Relation lookup) {
+        return xrefOperation.findRelations(entitySet, tenant, lookup);
+    }
+
+    @Override
+    public RelationCursor exportRelations(@Header("entitySet") String entitySet,
+                                          @Header("tenant") String tenant,
+                                          @Header("after") Integer after,
+                                          @Header("limit") Integer limit) throws EntityNotFoundException {
+        return xrefOperation.exportRelations(entitySet, tenant, after, limit);
+    }
+
+    @Override
+    public void importRelations(String entitySet,
+                                String tenant,
+                                Map<Long, Relation> records,
+                                ImportReport report) {
+        xrefOperation.importRelations(entitySet, tenant, records, report);
+    }
+
     @Override
     public Relation findRelationByCommonId(@Header("commonId") String commonId,
                                            @Header("entitySet") String entitySet,
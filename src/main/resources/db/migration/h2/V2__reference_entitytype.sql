@@ -0,0 +1,7 @@
+-- The entity type of a reference, see db/migration/mysql/V2__reference_entitytype.sql.
+ALTER TABLE `REFERENCE` ADD COLUMN `ENTITYTYPE_ID` INT AFTER `RELATION_ID`;
+
+UPDATE `REFERENCE` SET `ENTITYTYPE_ID` = (SELECT `ENTITYTYPE_ID` FROM `RELATION` WHERE `RELATION`.`ID` = `REFERENCE`.`RELATION_ID`);
+
+ALTER TABLE `REFERENCE` ALTER COLUMN `ENTITYTYPE_ID` SET NOT NULL;
+CREATE UNIQUE INDEX ENTITYTYPE_ENDPOINT_0 ON `REFERENCE` (`ENTITYTYPE_ID` ASC, `ENDPOINT` ASC, `ENDPOINTID` ASC);
@@ -0,0 +1,16 @@
+-- A commonId identifies exactly one relation.
+DROP INDEX COMMONID_0;
+CREATE UNIQUE INDEX COMMONID_0 ON `RELATION` (`COMMONID` ASC);
+
+-- Index-only access for the endpoint lookup and for loading the references of a relation,
+-- see db/migration/mysql/V3__lookup_indexes.sql.
+DROP INDEX ENDPOINT_0;
+CREATE INDEX ENDPOINT_LOOKUP_0 ON `REFERENCE` (`ENTITYTYPE_ID` ASC, `ENDPOINT` ASC, `ENDPOINTID` ASC, `RELATION_ID` ASC);
+CREATE INDEX RELATION_REFERENCES_0 ON `REFERENCE` (`RELATION_ID` ASC, `ID` ASC, `ENDPOINT` ASC, `ENDPOINTID` ASC);
+
+-- RELATION_REFERENCES_0 now backs the foreign key to relation
+ALTER TABLE `REFERENCE` DROP CONSTRAINT FK_REFERENCE_RELATION;
+DROP INDEX FK_REFERENCE_RELATION_IDX_0;
+ALTER TABLE `REFERENCE`
+  ADD CONSTRAINT FK_REFERENCE_RELATION FOREIGN KEY (`RELATION_ID`)
+REFERENCES `RELATION`(`ID`);
@@ -0,0 +1,9 @@
+-- Change table of JdbcInvalidationChannel, see db/migration/mysql/V4__cache_invalidation.sql.
+CREATE TABLE IF NOT EXISTS `CACHE_INVALIDATION`
+(`ID` BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  `NODE` VARCHAR(36) NOT NULL,
+  `CACHE_NAME` VARCHAR(91) NOT NULL,
+  `CACHE_KEY` VARCHAR(255) NOT NULL,
+  `CREATED` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP);
+
+CREATE INDEX CACHE_INVALIDATION_CREATED_0 ON `CACHE_INVALIDATION` (`CREATED` ASC);
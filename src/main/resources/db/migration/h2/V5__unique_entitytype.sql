@@ -0,0 +1,14 @@
+-- One entity type per tenant and entity set, see db/migration/mysql/V5__unique_entitytype.sql.
+UPDATE `RELATION` SET `ENTITYTYPE_ID` = (SELECT MIN(`FIRST`.`ID`) FROM `ENTITYTYPE` `FIRST`
+  JOIN `ENTITYTYPE` `DUPLICATE` ON `FIRST`.`TENANT` = `DUPLICATE`.`TENANT` AND `FIRST`.`ENTITYTYPE` = `DUPLICATE`.`ENTITYTYPE`
+  WHERE `DUPLICATE`.`ID` = `RELATION`.`ENTITYTYPE_ID`);
+
+UPDATE `REFERENCE` SET `ENTITYTYPE_ID` = (SELECT MIN(`FIRST`.`ID`) FROM `ENTITYTYPE` `FIRST`
+  JOIN `ENTITYTYPE` `DUPLICATE` ON `FIRST`.`TENANT` = `DUPLICATE`.`TENANT` AND `FIRST`.`ENTITYTYPE` = `DUPLICATE`.`ENTITYTYPE`
+  WHERE `DUPLICATE`.`ID` = `REFERENCE`.`ENTITYTYPE_ID`);
+
+DELETE FROM `ENTITYTYPE` WHERE `ID` > (SELECT MIN(`FIRST`.`ID`) FROM `ENTITYTYPE` `FIRST`
+  WHERE `FIRST`.`TENANT` = `ENTITYTYPE`.`TENANT` AND `FIRST`.`ENTITYTYPE` = `ENTITYTYPE`.`ENTITYTYPE`);
+
+DROP INDEX TENANT_0;
+CREATE UNIQUE INDEX TENANT_0 ON `ENTITYTYPE` (`TENANT` ASC, `ENTITYTYPE` ASC);
@@ -0,0 +1,11 @@
+-- A reference carries the entity type of its relation, so an endpoint id can only belong to one relation
+-- of an entity set. Existing references take it from their relation; the unique index fails on data that
+-- already has the same endpoint id in two relations of one entity set, those have to be merged first.
+ALTER TABLE `reference` ADD COLUMN `entitytype_id` INT NULL AFTER `relation_id`;
+
+UPDATE `reference` JOIN `relation` ON `relation`.`id` = `reference`.`relation_id`
+  SET `reference`.`entitytype_id` = `relation`.`entitytype_id`;
+
+ALTER TABLE `reference`
+  MODIFY COLUMN `entitytype_id` INT NOT NULL,
+  ADD UNIQUE INDEX `ENTITYTYPE_ENDPOINT` (`entitytype_id` ASC, `endpoint` ASC, `endpointid` ASC);
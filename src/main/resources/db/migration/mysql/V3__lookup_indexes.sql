@@ -0,0 +1,15 @@
+-- A commonId identifies exactly one relation.
+ALTER TABLE `relation`
+  DROP INDEX `COMMONID`,
+  ADD UNIQUE INDEX `COMMONID` (`commonid` ASC);
+
+-- The endpoint lookup probes reference on (entitytype_id, endpoint, endpointid) and needs nothing but
+-- relation_id from it, loading the references of a relation needs their id, endpoint and endpointid.
+-- Both are answered from the index alone. ENTITYTYPE_ENDPOINT stays as the constraint against duplicate references.
+ALTER TABLE `reference`
+  DROP INDEX `ENDPOINT`,
+  ADD INDEX `ENDPOINT_LOOKUP` (`entitytype_id` ASC, `endpoint` ASC, `endpointid` ASC, `relation_id` ASC),
+  ADD INDEX `RELATION_REFERENCES` (`relation_id` ASC, `id` ASC, `endpoint` ASC, `endpointid` ASC);
+
+-- RELATION_REFERENCES now backs the foreign key to relation
+ALTER TABLE `reference` DROP INDEX `fk_reference_relation_idx`;
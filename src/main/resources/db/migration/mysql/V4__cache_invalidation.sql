@@ -0,0 +1,10 @@
+-- Change table of JdbcInvalidationChannel: the keys written by one instance, polled by the others.
+CREATE TABLE IF NOT EXISTS `cache_invalidation` (
+  `id` BIGINT NOT NULL AUTO_INCREMENT,
+  `node` VARCHAR(36) NOT NULL,
+  `cache_name` VARCHAR(91) NOT NULL,
+  `cache_key` VARCHAR(255) NOT NULL,
+  `created` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  INDEX `CACHE_INVALIDATION_CREATED` (`created` ASC))
+ENGINE = InnoDB;
@@ -0,0 +1,25 @@
+-- A tenant and entity set have exactly one entity type. Concurrent first creates could insert two rows,
+-- their relations and references are moved to the first of them before the others are deleted.
+UPDATE `relation`
+  JOIN `entitytype` `duplicate` ON `duplicate`.`id` = `relation`.`entitytype_id`
+  JOIN (SELECT `tenant`, `entitytype`, MIN(`id`) AS `id` FROM `entitytype` GROUP BY `tenant`, `entitytype`) `first`
+    ON `first`.`tenant` = `duplicate`.`tenant` AND `first`.`entitytype` = `duplicate`.`entitytype`
+  SET `relation`.`entitytype_id` = `first`.`id`
+  WHERE `duplicate`.`id` <> `first`.`id`;
+
+-- fails on an endpoint id that is in both entity types, those relations have to be merged by hand first
+UPDATE `reference`
+  JOIN `entitytype` `duplicate` ON `duplicate`.`id` = `reference`.`entitytype_id`
+  JOIN (SELECT `tenant`, `entitytype`, MIN(`id`) AS `id` FROM `entitytype` GROUP BY `tenant`, `entitytype`) `first`
+    ON `first`.`tenant` = `duplicate`.`tenant` AND `first`.`entitytype` = `duplicate`.`entitytype`
+  SET `reference`.`entitytype_id` = `first`.`id`
+  WHERE `duplicate`.`id` <> `first`.`id`;
+
+DELETE `duplicate` FROM `entitytype` `duplicate`
+  JOIN (SELECT `tenant`, `entitytype`, MIN(`id`) AS `id` FROM `entitytype` GROUP BY `tenant`, `entitytype`) `first`
+    ON `first`.`tenant` = `duplicate`.`tenant` AND `first`.`entitytype` = `duplicate`.`entitytype`
+  WHERE `duplicate`.`id` <> `first`.`id`;
+
+ALTER TABLE `entitytype`
+  DROP INDEX `TENANT`,
+  ADD UNIQUE INDEX `TENANT` (`tenant` ASC, `entitytype` ASC);
@@ -15,6 +15,9 @@
  */
 package com.nullendpoint.xref;
 
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.camel.CamelContext;
 import org.apache.camel.ProducerTemplate;
 import org.junit.Test;
@@ -24,13 +27,23 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.web.util.UriUtils;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -48,6 +61,12 @@ public class ApplicationTest {
     @Autowired
     private CamelContext camelContext;
 
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Autowired
+    private CacheAccessor cacheAccessor;
+
     @Test
     public void createTenantAndIdTest(){
 
@@ -60,6 +79,9 @@ public class ApplicationTest {
         assertThat(relResult.getReferences().get(0).getEndpoint()).isEqualToIgnoringCase("sso");
         assertThat(relResult.getReferences().get(0).getEndpointId()).isEqualToIgnoringCase("redfoo");
 
+        //time-ordered commonIds are version 7 UUIDs
+        assertThat(UUID.fromString(relResult.getCommonId()).version()).isEqualTo(7);
+
         //try posting the same thing again...
         Relation relResult2 = restTemplate.postForObject("/xref/redhat/person", r, Relation.class);
         //ensure the commonId is the same
@@ -125,4 +147,228 @@ public class ApplicationTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void updateKeepsTheReferencesInTheEntitySetOfTheRelation() {
+
+        Relation r = RelationFactory.createRelation();
+        r.getReferences().add(RelationFactory.createRelationReference("sso", "crossfoo"));
+        Relation relResult = restTemplate.postForObject("/xref/redhat/person", r, Relation.class);
+
+        //the relation is updated through an entity set it does not belong to
+        Relation update = RelationFactory.createRelation();
+        update.setCommonId(relResult.getCommonId());
+        update.getReferences().add(RelationFactory.createRelationReference("dfs", "crossbar"));
+        ResponseEntity<Relation> updated = restTemplate.exchange("/xref/othercorp/person", HttpMethod.PUT, new HttpEntity<>(update), Relation.class);
+        assertThat(updated.getStatusCodeValue()).isEqualTo(200);
+        assertThat(updated.getBody().getReferences().size()).isEqualTo(2);
+
+        //the new reference has the entity type of the relation, the lookup reads it from the database
+        ResponseEntity<Relation> found = restTemplate.getForEntity("/xref/redhat/person?endpoint=dfs&id=crossbar", Relation.class);
+        assertThat(found.getStatusCodeValue()).isEqualTo(200);
+        assertThat(found.getBody().getCommonId()).isEqualTo(relResult.getCommonId());
+    }
+
+    @Test
+    public void bulkLookupOfIds() {
+
+        Relation r = RelationFactory.createRelation();
+        r.getReferences().add(RelationFactory.createRelationReference("sso", "bulkfoo"));
+        r.getReferences().add(RelationFactory.createRelationReference("dfs", "998877"));
+        Relation relResult = restTemplate.postForObject("/xref/redhat/person", r, Relation.class);
+
+        Relation lookup = RelationFactory.createRelation();
+        lookup.getReferences().add(RelationFactory.createRelationReference("sso", "bulkfoo"));
+        lookup.getReferences().add(RelationFactory.createRelationReference("sso", "doesnotexist"));
+        lookup.getReferences().add(RelationFactory.createRelationReference("dfs", "998877"));
+
+        List<RelationLookup> results = Arrays.asList(restTemplate.postForObject("/xref/redhat/person/lookup", lookup, RelationLookup[].class));
+
+        assertThat(results.size()).isEqualTo(3);
+        assertThat(results.get(0).isFound()).isTrue();
+        assertThat(results.get(0).getRelation().getCommonId()).isEqualToIgnoringCase(relResult.getCommonId());
+        assertThat(results.get(0).getRelation().getReferences().size()).isEqualTo(2);
+        assertThat(results.get(1).isFound()).isFalse();
+        assertThat(results.get(1).getEndpointId()).isEqualTo("doesnotexist");
+        assertThat(results.get(2).isFound()).isTrue();
+        assertThat(results.get(2).getRelation().getCommonId()).isEqualToIgnoringCase(relResult.getCommonId());
+    }
+
+    @Test
+    public void exportOfAnEntitySet() throws Exception {
+        List<String> commonIds = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            Relation r = RelationFactory.createRelation();
+            r.getReferences().add(RelationFactory.createRelationReference("sso", "exportfoo" + i));
+            r.getReferences().add(RelationFactory.createRelationReference("dfs", "exportbar" + i));
+            commonIds.add(restTemplate.postForObject("/xref/exportco/person", r, Relation.class).getCommonId());
+        }
+
+        ResponseEntity<String> export = restTemplate.getForEntity("/xref/exportco/person/export", String.class);
+        assertThat(export.getHeaders().getContentType().toString()).startsWith("application/x-ndjson");
+        String[] lines = export.getBody().split("\n");
+        assertThat(lines.length).isEqualTo(3);
+        ObjectMapper mapper = new ObjectMapper();
+        Relation first = mapper.readValue(lines[0], Relation.class);
+        assertThat(first.getCommonId()).isEqualTo(commonIds.get(0));
+        assertThat(first.getReferences().size()).isEqualTo(2);
+
+        //resume after the first relation, one relation at a time
+        String page = restTemplate.getForObject("/xref/exportco/person/export?after=" + first.getId() + "&limit=1", String.class);
+        assertThat(page.split("\n").length).isEqualTo(1);
+        assertThat(mapper.readValue(page, Relation.class).getCommonId()).isEqualTo(commonIds.get(1));
+    }
+
+    @Test
+    public void importOfRelations() throws Exception {
+        Relation r = RelationFactory.createRelation();
+        r.getReferences().add(RelationFactory.createRelationReference("sso", "importfoo"));
+        Relation existing = restTemplate.postForObject("/xref/importco/person", r, Relation.class);
+
+        String upload = "{\"references\":[{\"endpoint\":\"sso\",\"endpointId\":\"importbar\"},{\"endpoint\":\"dfs\",\"endpointId\":\"1\"}]}\n"
+                + "\n"
+                + "{\"references\":[{\"endpoint\":\"sso\",\"endpointId\":\"importfoo\"},{\"endpoint\":\"dfs\",\"endpointId\":\"2\"}]}\n"
+                + "{\"references\":[]}\n"
+                + "{\"references\":[{\"endpoint\":\"sso\",\"endpointId\":\"importbar\"},{\"endpoint\":\"dfs\",\"endpointId\":\"2\"}]}\n"
+                + "not json\n";
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf("application/x-ndjson"));
+        ResponseEntity<String> response = restTemplate.postForEntity("/xref/importco/person/import", new HttpEntity<String>(upload, headers), String.class);
+        assertThat(response.getStatusCodeValue()).isEqualTo(200);
+
+        JsonNode report = new ObjectMapper().readTree(response.getBody());
+        assertThat(report.get("records").asInt()).isEqualTo(5);
+        assertThat(report.get("created").asInt()).isEqualTo(1);
+        assertThat(report.get("extended").asInt()).isEqualTo(1);
+        assertThat(report.get("references").asInt()).isEqualTo(3);
+        assertThat(report.get("failed").asInt()).isEqualTo(3);
+        //line numbers of the upload, the blank line counts
+        List<Integer> failed = new ArrayList<Integer>();
+        for (JsonNode failure : report.get("failures")) {
+            failed.add(failure.get("record").asInt());
+        }
+        assertThat(failed).containsOnly(4, 5, 6);
+
+        Relation extended = restTemplate.getForObject("/xref/importco/person?endpoint=dfs&id=2", Relation.class);
+        assertThat(extended.getCommonId()).isEqualTo(existing.getCommonId());
+        assertThat(extended.getReferences().size()).isEqualTo(2);
+
+        headers.setContentType(MediaType.valueOf("text/csv"));
+        response = restTemplate.postForEntity("/xref/importco/person/import", new HttpEntity<String>("sso,importbaz,dfs,3\n", headers), String.class);
+        assertThat(new ObjectMapper().readTree(response.getBody()).get("created").asInt()).isEqualTo(1);
+        assertThat(restTemplate.getForObject("/xref/importco/person?endpoint=dfs&id=3", Relation.class).getReferences().size()).isEqualTo(2);
+    }
+
+    @Test
+    public void lookupBeforeAndAfterCreate() {
+
+        //the integration probes for the id first and gets a 404
+        ResponseEntity<Relation> notFound = restTemplate.getForEntity("/xref/redhat/person?endpoint=sso&id=newfoo", Relation.class);
+        assertThat(notFound.getStatusCodeValue()).isEqualTo(404);
+
+        Relation r = RelationFactory.createRelation();
+        r.getReferences().add(RelationFactory.createRelationReference("sso", "newfoo"));
+        Relation relResult = restTemplate.postForObject("/xref/redhat/person", r, Relation.class);
+
+        //the remembered miss must not hide the relation that was just created
+        ResponseEntity<Relation> found = restTemplate.getForEntity("/xref/redhat/person?endpoint=sso&id=newfoo", Relation.class);
+        assertThat(found.getStatusCodeValue()).isEqualTo(200);
+        assertThat(found.getBody().getCommonId()).isEqualToIgnoringCase(relResult.getCommonId());
+    }
+
+    @Test
+    public void metricsForRoutesCachesAndStatements() {
+
+        //the other tests of the class share the registry, only the growth counts
+        long inserts = timerCount("xref.jdbc.insertRelation");
+        Relation r = RelationFactory.createRelation();
+        r.getReferences().add(RelationFactory.createRelationReference("sso", "metricfoo"));
+        restTemplate.postForObject("/xref/redhat/person", r, Relation.class);
+        restTemplate.getForEntity("/xref/redhat/person?endpoint=sso&id=metricfoo", Relation.class);
+        restTemplate.getForEntity("/xref/redhat/person?endpoint=sso&id=nometricfoo", Relation.class);
+
+        assertThat(metricRegistry.getMeters().get("xref.cache.redhat:person.hit").getCount()).isGreaterThanOrEqualTo(1);
+        assertThat(metricRegistry.getMeters().get("xref.cache.redhat:person.miss").getCount()).isGreaterThanOrEqualTo(1);
+        //an entity set without an entity type gets no metrics of its own
+        restTemplate.getForEntity("/xref/probeco/probe" + inserts + "?endpoint=sso&id=metricfoo", Relation.class);
+        assertThat(metricRegistry.getMeters().keySet()).doesNotContain("xref.cache.probeco:probe" + inserts + ".miss");
+        assertThat(metricRegistry.getMeters().get("xref.cache.other.miss").getCount()).isGreaterThanOrEqualTo(1);
+        assertThat(metricRegistry.getTimers().get("xref.jdbc.selectRelationByEndpoint").getCount()).isGreaterThanOrEqualTo(1);
+        assertThat(timerCount("xref.jdbc.insertRelation")).isEqualTo(inserts + 1);
+
+        boolean routeTimed = false;
+        for (String name : metricRegistry.getTimers().keySet()) {
+            routeTimed |= name.contains("find-relation") && metricRegistry.getTimers().get(name).getCount() > 0;
+        }
+        assertThat(routeTimed).isTrue();
+    }
+
+    @Test
+    public void concurrentLookupsOfAnUncachedId() throws Exception {
+
+        Relation r = RelationFactory.createRelation();
+        r.getReferences().add(RelationFactory.createRelationReference("sso", "herdfoo"));
+        Relation relResult = restTemplate.postForObject("/xref/redhat/person", r, Relation.class);
+        //the create cached the relation, the lookups by common id that miss the cache share one load and the
+        //ones that start a load after it finished find the relation it cached
+        cacheAccessor.invalidate("redhat", "person", Arrays.asList(relResult.getCommonId()));
+        long loads = timerCount("xref.jdbc.selectRelationByCommonId");
+
+        lookUpConcurrently("/xref/redhat/person/" + relResult.getCommonId(), relResult.getCommonId());
+
+        assertThat(timerCount("xref.jdbc.selectRelationByCommonId")).isEqualTo(loads + 1);
+    }
+
+    @Test
+    public void concurrentFirstCreatesShareTheEntitySet() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Relation>> created = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final Relation r = RelationFactory.createRelation();
+                r.getReferences().add(RelationFactory.createRelationReference("sso", "firstfoo" + i));
+                created.add(executor.submit(new Callable<Relation>() {
+                    @Override
+                    public Relation call() {
+                        return restTemplate.postForObject("/xref/newco/person", r, Relation.class);
+                    }
+                }));
+            }
+            for (Future<Relation> relation : created) {
+                assertThat(relation.get().getCommonId()).isNotNull();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        //every relation is in the one entity type of newco:person
+        String export = restTemplate.getForObject("/xref/newco/person/export", String.class);
+        assertThat(export.split("\n").length).isEqualTo(8);
+    }
+
+    /**
+     * Sends 16 lookups of the uri from 8 threads, each of them has to find the relation.
+     */
+    protected void lookUpConcurrently(final String uri, String commonId) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ResponseEntity<Relation>>> responses = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                responses.add(executor.submit(new Callable<ResponseEntity<Relation>>() {
+                    @Override
+                    public ResponseEntity<Relation> call() {
+                        return restTemplate.getForEntity(uri, Relation.class);
+                    }
+                }));
+            }
+            for (Future<ResponseEntity<Relation>> response : responses) {
+                assertThat(response.get().getStatusCodeValue()).isEqualTo(200);
+                assertThat(response.get().getBody().getCommonId()).isEqualToIgnoringCase(commonId);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private long timerCount(String name) {
+        return metricRegistry.getTimers().containsKey(name) ? metricRegistry.getTimers().get(name).getCount() : 0;
+    }
+}
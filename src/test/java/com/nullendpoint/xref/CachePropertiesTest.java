@@ -0,0 +1,40 @@
+package com.nullendpoint.xref;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class CachePropertiesTest {
+
+    @Test
+    public void entitySetReplacesTheExpiryOfItsTenant() {
+        CacheProperties cacheProperties = new CacheProperties();
+        CacheProperties.CacheSpec tenant = new CacheProperties.CacheSpec();
+        tenant.setTimeToLive(3600L);
+        CacheProperties.CacheSpec entitySet = new CacheProperties.CacheSpec();
+        entitySet.setTimeToIdle(600L);
+        tenant.getEntitySets().put("person", entitySet);
+        cacheProperties.getTenants().put("redhat", tenant);
+        cacheProperties.afterPropertiesSet();
+
+        assertThat(cacheProperties.resolve("redhat:person").getTimeToIdle()).isEqualTo(600L);
+        assertThat(cacheProperties.resolve("redhat:person").getTimeToLive()).isNull();
+        assertThat(cacheProperties.resolve("redhat:account").getTimeToLive()).isEqualTo(3600L);
+    }
+
+    @Test
+    public void specWithBothExpiriesIsRejected() {
+        CacheProperties cacheProperties = new CacheProperties();
+        CacheProperties.CacheSpec tenant = new CacheProperties.CacheSpec();
+        tenant.setTimeToLive(3600L);
+        tenant.setTimeToIdle(600L);
+        cacheProperties.getTenants().put("redhat", tenant);
+        try {
+            cacheProperties.afterPropertiesSet();
+            fail("a cache with time-to-live and time-to-idle was accepted");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("xref.cache.tenants.redhat");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.nullendpoint.xref;
+
+import org.flywaydb.core.Flyway;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CacheWarmerTest {
+
+    private EmbeddedDatabase database;
+    private final List<Relation> relations = new ArrayList<Relation>();
+
+    @Before
+    public void createRelations() throws Exception {
+        database = new EmbeddedDatabaseBuilder().generateUniqueName(true).setType(EmbeddedDatabaseType.H2).build();
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(database);
+        flyway.setLocations("classpath:db/migration/h2");
+        flyway.migrate();
+        JDBCXrefOperation operation = new JDBCXrefOperation(new JdbcTemplate(database),
+                new TransactionTemplate(new DataSourceTransactionManager(database)), new CacheAccessor(new MapCacheProvider(
+                        new ConcurrentHashMap<String, Map<String, Relation>>())));
+        for (int i = 0; i < 3; i++) {
+            Relation relation = RelationFactory.createRelation();
+            relation.getReferences().add(RelationFactory.createRelationReference("sso", "redfoo" + i));
+            relation.getReferences().add(RelationFactory.createRelationReference("dfs", "1233414242" + i));
+            relations.add(operation.createRelation("person", "redhat", relation));
+        }
+        Relation other = RelationFactory.createRelation();
+        other.getReferences().add(RelationFactory.createRelationReference("sso", "bluefoo"));
+        operation.createRelation("person", "bluehat", other);
+    }
+
+    @After
+    public void shutdown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void cachesTheNewestRelationsOfATenant() {
+        CacheProperties cacheProperties = new CacheProperties();
+        CacheProperties.CacheSpec redhat = new CacheProperties.CacheSpec();
+        redhat.setWarmUpEntries(2L);
+        cacheProperties.getTenants().put("redhat", redhat);
+        Map<String, Map<String, Relation>> caches = new ConcurrentHashMap<String, Map<String, Relation>>();
+        CacheWarmer cacheWarmer = new CacheWarmer(new JdbcTemplate(database), new CacheAccessor(new MapCacheProvider(caches)),
+                cacheProperties, CommonIdStorage.TEXT);
+
+        ReadinessEndpoint readinessEndpoint = new ReadinessEndpoint(cacheWarmer);
+        assertThat(cacheWarmer.readiness().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+        assertThat(readinessEndpoint.invoke().getStatusCodeValue()).isEqualTo(503);
+        cacheWarmer.warmUp();
+
+        assertThat(cacheWarmer.readiness().getStatus()).isEqualTo(Status.UP);
+        assertThat(cacheWarmer.readiness().getDetails().get("relations")).isEqualTo(2L);
+        assertThat(readinessEndpoint.invoke().getStatusCodeValue()).isEqualTo(200);
+        assertThat(caches.keySet()).containsOnly("redhat:person");
+        Map<String, Relation> cache = caches.get("redhat:person");
+        assertThat(cache).hasSize(6);
+        assertThat(cache).doesNotContainKey(relations.get(0).getCommonId());
+        for (Relation relation : relations.subList(1, 3)) {
+            assertThat(cache.get(relation.getCommonId()).getReferences()).hasSize(2);
+            assertThat(cache.get("sso:" + relation.getReferences().get(0).getEndpointId()).getCommonId())
+                    .isEqualTo(relation.getCommonId());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.nullendpoint.xref;
+
+import org.flywaydb.core.Flyway;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Runs on a database created from sql/h2.sql, migrated like the service does it and converted by
+ * sql/h2-commonid-binary.sql. Every operation gets caches of its own, so the lookups of one read what another
+ * one wrote from the database.
+ */
+public class CommonIdStorageTest {
+
+    private static final String URL = "jdbc:h2:mem:commonid-storage;DB_CLOSE_DELAY=-1";
+
+    private DriverManagerDataSource database;
+
+    @Before
+    public void createDatabase() {
+        new ResourceDatabasePopulator(new FileSystemResource("sql/h2.sql")).execute(new DriverManagerDataSource(URL));
+        database = new DriverManagerDataSource(URL + ";SCHEMA=XREF");
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(database);
+        flyway.setSchemas("XREF");
+        flyway.setLocations("classpath:db/migration/h2");
+        flyway.setBaselineOnMigrate(true);
+        flyway.setBaselineVersionAsString("1");
+        flyway.migrate();
+    }
+
+    @After
+    public void shutdown() {
+        new JdbcTemplate(database).execute("SHUTDOWN");
+    }
+
+    @Test
+    public void relationsSurviveTheConversionToBinary() throws Exception {
+        Relation before = createOperation(CommonIdStorage.TEXT).createRelation("person", "redhat", relation("sso", "redfoo"));
+        new ResourceDatabasePopulator(new FileSystemResource("sql/h2-commonid-binary.sql")).execute(database);
+
+        Relation created = createOperation(CommonIdStorage.BINARY).createRelation("person", "redhat", relation("sso", "bluefoo"));
+        ImportReport report = new ImportReport();
+        createOperation(CommonIdStorage.BINARY).importRelations("person", "redhat",
+                Collections.singletonMap(1L, relation("sso", "greenfoo")), report);
+        assertThat(report.getCreated()).isEqualTo(1);
+
+        JDBCXrefOperation reader = createOperation(CommonIdStorage.BINARY);
+        assertThat(reader.findRelationByCommonId(before.getCommonId(), "person", "redhat").getReferences().get(0).getEndpointId())
+                .isEqualTo("redfoo");
+        assertThat(reader.findRelationByCommonId(created.getCommonId(), "person", "redhat").getReferences().get(0).getEndpointId())
+                .isEqualTo("bluefoo");
+        assertThat(reader.findRelation("person", "redhat", "sso", "bluefoo").getCommonId()).isEqualTo(created.getCommonId());
+        Relation imported = reader.findRelation("person", "redhat", "sso", "greenfoo");
+        assertThat(reader.findRelationByCommonId(imported.getCommonId().toUpperCase(), "person", "redhat").getId())
+                .isEqualTo(imported.getId());
+        try {
+            reader.findRelationByCommonId("not-a-uuid", "person", "redhat");
+            fail("a commonId that is not a UUID matched a relation");
+        } catch (EntityNotFoundException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void binaryStorageOnlyTakesUuids() {
+        assertThat(CommonIdStorage.BINARY.canonical("ACE664A0-1D28-412A-9EA5-0BBF5739F4CE")).isEqualTo("ace664a0-1d28-412a-9ea5-0bbf5739f4ce");
+        assertThat(CommonIdStorage.TEXT.canonical("not-a-uuid")).isEqualTo("not-a-uuid");
+        try {
+            CommonIdStorage.BINARY.canonical("not-a-uuid");
+            fail("a commonId that is not a UUID was accepted");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    private JDBCXrefOperation createOperation(CommonIdStorage commonIdStorage) {
+        JDBCXrefOperation operation = new JDBCXrefOperation(new JdbcTemplate(database),
+                new TransactionTemplate(new DataSourceTransactionManager(database)), new CacheAccessor(new MapCacheProvider(
+                        new ConcurrentHashMap<String, Map<String, Relation>>())));
+        operation.setCommonIdStorage(commonIdStorage);
+        return operation;
+    }
+
+    private static Relation relation(String endpoint, String endpointId) {
+        Relation relation = RelationFactory.createRelation();
+        relation.getReferences().add(RelationFactory.createRelationReference(endpoint, endpointId));
+        return relation;
+    }
+}
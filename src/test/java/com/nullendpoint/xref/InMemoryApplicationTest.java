@@ -0,0 +1,60 @@
+package com.nullendpoint.xref;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The API of {@link ApplicationTest} on the in-memory store, without a database or a journal.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+        "xref.store=memory",
+        "xref.memory.path=",
+        "spring.autoconfigure.exclude=org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration"})
+public class InMemoryApplicationTest extends ApplicationTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    /**
+     * Without a cache every lookup reads the store, there are no loads to share.
+     */
+    @Test
+    @Override
+    public void concurrentLookupsOfAnUncachedId() throws Exception {
+
+        Relation r = RelationFactory.createRelation();
+        r.getReferences().add(RelationFactory.createRelationReference("sso", "herdfoo"));
+        Relation relResult = restTemplate.postForObject("/xref/redhat/person", r, Relation.class);
+
+        lookUpConcurrently("/xref/redhat/person/" + relResult.getCommonId(), relResult.getCommonId());
+    }
+
+    /**
+     * There are no caches or statements in front of the in-memory store, only the routes are timed.
+     */
+    @Test
+    @Override
+    public void metricsForRoutesCachesAndStatements() {
+
+        Relation r = RelationFactory.createRelation();
+        r.getReferences().add(RelationFactory.createRelationReference("sso", "metricfoo"));
+        restTemplate.postForObject("/xref/redhat/person", r, Relation.class);
+        restTemplate.getForEntity("/xref/redhat/person?endpoint=sso&id=metricfoo", Relation.class);
+
+        assertThat(metricRegistry.getTimers().get("xref.jdbc.insertRelation")).isNull();
+        boolean routeTimed = false;
+        for (String name : metricRegistry.getTimers().keySet()) {
+            routeTimed |= name.contains("find-relation") && metricRegistry.getTimers().get(name).getCount() > 0;
+        }
+        assertThat(routeTimed).isTrue();
+    }
+}
@@ -0,0 +1,100 @@
+package com.nullendpoint.xref;
+
+import org.flywaydb.core.Flyway;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Two instances of the service in one JVM, sharing a database but each with a cache of its own.
+ */
+public class JdbcInvalidationChannelTest {
+
+    private EmbeddedDatabase database;
+    private Node first;
+    private Node second;
+
+    @Before
+    public void startNodes() {
+        database = new EmbeddedDatabaseBuilder().generateUniqueName(true).setType(EmbeddedDatabaseType.H2).build();
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(database);
+        flyway.setLocations("classpath:db/migration/h2");
+        flyway.migrate();
+        first = new Node(database);
+        second = new Node(database);
+    }
+
+    @After
+    public void shutdown() {
+        first.channel.close();
+        second.channel.close();
+        database.shutdown();
+    }
+
+    @Test
+    public void dropsWhatAnotherNodeWrote() throws Exception {
+        Relation relation = RelationFactory.createRelation();
+        relation.getReferences().add(RelationFactory.createRelationReference("sso", "redfoo"));
+        relation = first.operation.createRelation("person", "redhat", relation);
+        second.channel.poll();
+
+        second.operation.findRelation("person", "redhat", "sso", "redfoo");
+        second.operation.findRelationByCommonId(relation.getCommonId(), "person", "redhat");
+        assertThat(second.cache.get("redhat:person")).containsKeys("sso:redfoo", relation.getCommonId());
+
+        first.operation.addOrUpdateReference("redbar", "sso", relation.getCommonId(), "person", "redhat");
+        first.channel.poll();
+        assertThat(first.cache.get("redhat:person")).containsKeys("sso:redbar", relation.getCommonId());
+
+        second.channel.poll();
+        assertThat(second.cache.get("redhat:person")).doesNotContainKey("sso:redfoo");
+        assertThat(second.cache.get("redhat:person")).doesNotContainKey(relation.getCommonId());
+        assertThat(second.operation.findRelationByCommonId(relation.getCommonId(), "person", "redhat")
+                .getReferences().get(0).getEndpointId()).isEqualTo("redbar");
+    }
+
+    @Test
+    public void dropsEndpointIdsRememberedAsMissing() throws Exception {
+        try {
+            second.operation.findRelation("person", "redhat", "sso", "bluefoo");
+            fail("found a relation that was not created yet");
+        } catch (EntityNotFoundException e) {
+            //expected, and now remembered as missing
+        }
+        Relation relation = RelationFactory.createRelation();
+        relation.getReferences().add(RelationFactory.createRelationReference("sso", "bluefoo"));
+        relation = first.operation.createRelation("person", "redhat", relation);
+
+        second.channel.poll();
+        assertThat(second.operation.findRelation("person", "redhat", "sso", "bluefoo").getCommonId())
+                .isEqualTo(relation.getCommonId());
+    }
+
+    private static class Node {
+
+        final Map<String, Map<String, Relation>> cache = new ConcurrentHashMap<String, Map<String, Relation>>();
+        final JdbcInvalidationChannel channel;
+        final JDBCXrefOperation operation;
+
+        Node(EmbeddedDatabase database) {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+            CacheAccessor cacheAccessor = new CacheAccessor(new MapCacheProvider(cache), 30, 100);
+            channel = new JdbcInvalidationChannel(jdbcTemplate, 0, 600);
+            cacheAccessor.setInvalidationChannel(channel);
+            operation = new JDBCXrefOperation(jdbcTemplate, new TransactionTemplate(new DataSourceTransactionManager(database)), cacheAccessor);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.nullendpoint.xref;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches in plain maps, one per cache name, which the tests can look into.
+ */
+class MapCacheProvider implements CacheProvider {
+
+    private final Map<String, Map<String, Relation>> caches;
+
+    MapCacheProvider(Map<String, Map<String, Relation>> caches) {
+        this.caches = caches;
+    }
+
+    public Relation get(String cacheName, String key) {
+        return cache(cacheName).get(key);
+    }
+
+    public Map<String, Relation> getAll(String cacheName, Set<String> keys) {
+        Map<String, Relation> relations = new HashMap<String, Relation>();
+        for (String key : keys) {
+            if (cache(cacheName).containsKey(key)) {
+                relations.put(key, cache(cacheName).get(key));
+            }
+        }
+        return relations;
+    }
+
+    public void put(String cacheName, String key, Relation relation) {
+        cache(cacheName).put(key, relation);
+    }
+
+    public void remove(String cacheName, String key) {
+        cache(cacheName).remove(key);
+    }
+
+    private Map<String, Relation> cache(String cacheName) {
+        Map<String, Relation> cache = caches.get(cacheName);
+        if (cache == null) {
+            cache = new ConcurrentHashMap<String, Relation>();
+            caches.put(cacheName, cache);
+        }
+        return cache;
+    }
+}
@@ -0,0 +1,138 @@
+package com.nullendpoint.xref;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Message;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Request-reply over the broker embedded in the test JVM.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"xref.messaging.enabled=true", "xref.messaging.batch-size=10", "xref.messaging.batch-timeout=50"})
+public class MessagingApiTest {
+
+    @Autowired
+    private ProducerTemplate template;
+
+    @Autowired
+    private JDBCXrefOperation jdbcXrefOperation;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void createAddReferenceAndLookup() throws Exception {
+        Message created = request("jms:queue:xref.create", "{\"references\": [{\"endpoint\": \"sso\", \"endpointId\": \"jmsfoo\"}]}", headers());
+        assertThat(created.getHeader("status", Integer.class)).isEqualTo(200);
+        Relation relation = mapper.readValue(created.getBody(String.class), Relation.class);
+        assertThat(relation.getCommonId()).isNotNull();
+
+        Map<String, Object> referenceHeaders = headers();
+        referenceHeaders.put("commonId", relation.getCommonId());
+        referenceHeaders.put("endpoint", "dfs");
+        referenceHeaders.put("id", "jmsbar");
+        Message updated = request("jms:queue:xref.reference", "", referenceHeaders);
+        assertThat(mapper.readValue(updated.getBody(String.class), Relation.class).getReferences().size()).isEqualTo(2);
+
+        Message found = request("jms:queue:xref.lookup", "{\"endpoint\": \"dfs\", \"endpointId\": \"jmsbar\"}", headers());
+        assertThat(found.getHeader("status", Integer.class)).isEqualTo(200);
+        assertThat(mapper.readValue(found.getBody(String.class), Relation.class).getCommonId()).isEqualTo(relation.getCommonId());
+
+        Message missing = request("jms:queue:xref.lookup", "{\"endpoint\": \"dfs\", \"endpointId\": \"unknown\"}", headers());
+        assertThat(missing.getHeader("status", Integer.class)).isEqualTo(404);
+    }
+
+    @Test
+    public void concurrentLookupsAreAnsweredFromBatches() throws Exception {
+        final List<String> commonIds = new ArrayList<String>();
+        for (int i = 0; i < 25; i++) {
+            Message created = request("jms:queue:xref.create", "{\"references\": [{\"endpoint\": \"sso\", \"endpointId\": \"batchfoo" + i + "\"}]}", headers());
+            commonIds.add(mapper.readValue(created.getBody(String.class), Relation.class).getCommonId());
+        }
+
+        //the creates cached the relations, the lookups have to go to the database
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 25; i++) {
+            keys.add(CacheAccessor.createEndpointKey("sso", "batchfoo" + i));
+        }
+        jdbcXrefOperation.getCacheAccessor().invalidate("messaging", "person", keys);
+        long selects = metricRegistry.timer("xref.jdbc.selectRelationsByEndpoints").getCount();
+        long batches = metricRegistry.histogram("xref.messaging.lookup-batch").getCount();
+
+        ExecutorService executor = Executors.newFixedThreadPool(25);
+        List<Future<String>> replies = new ArrayList<Future<String>>();
+        for (int i = 0; i < 25; i++) {
+            final int index = i;
+            replies.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    Message found = request("jms:queue:xref.lookup", "{\"endpoint\": \"sso\", \"endpointId\": \"batchfoo" + index + "\"}", headers());
+                    return mapper.readValue(found.getBody(String.class), Relation.class).getCommonId();
+                }
+            }));
+        }
+        //every reply reaches the requester of its lookup
+        for (int i = 0; i < 25; i++) {
+            assertThat(replies.get(i).get()).isEqualTo(commonIds.get(i));
+        }
+        executor.shutdown();
+
+        //one query per batch, and fewer batches than lookups
+        long batched = metricRegistry.histogram("xref.messaging.lookup-batch").getCount() - batches;
+        assertThat(batched).isBetween(3L, 24L);
+        assertThat(metricRegistry.timer("xref.jdbc.selectRelationsByEndpoints").getCount() - selects).isEqualTo(batched);
+    }
+
+    @Test
+    public void lookupsThatCanNotBeReadAreAnswered() throws Exception {
+        Message unreadable = request("jms:queue:xref.lookup", "not json", headers());
+        assertThat(unreadable.getHeader("status", Integer.class)).isEqualTo(400);
+
+        Map<String, Object> noTenant = headers();
+        noTenant.remove("tenant");
+        Message missingTenant = request("jms:queue:xref.lookup", "{\"endpoint\": \"sso\", \"endpointId\": \"jmsfoo\"}", noTenant);
+        assertThat(missingTenant.getHeader("status", Integer.class)).isEqualTo(400);
+        assertThat(missingTenant.getBody(String.class)).contains("tenant");
+    }
+
+    private Message request(String uri, final String body, final Map<String, Object> headers) {
+        Exchange reply = template.send(uri, ExchangePattern.InOut, new Processor() {
+            @Override
+            public void process(Exchange exchange) throws Exception {
+                exchange.getIn().setHeaders(headers);
+                exchange.getIn().setBody(body);
+            }
+        });
+        assertThat(reply.getException()).isNull();
+        return reply.hasOut() ? reply.getOut() : reply.getIn();
+    }
+
+    private static Map<String, Object> headers() {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put("tenant", "messaging");
+        headers.put("entitySet", "person");
+        return headers;
+    }
+}
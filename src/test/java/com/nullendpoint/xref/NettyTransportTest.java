@@ -0,0 +1,77 @@
+package com.nullendpoint.xref;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The API on netty4-http, with one operation in flight and one waiting at most.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {
+        "xref.rest.transport=netty4-http",
+        "xref.rest.port=18082",
+        "xref.rest.threads.max=1",
+        "xref.rest.threads.queue-size=1"})
+public class NettyTransportTest {
+
+    private static final String URL = "http://localhost:18082/xref/nettyco/person";
+
+    private final TestRestTemplate restTemplate = new TestRestTemplate();
+
+    @Autowired
+    @Qualifier("restExecutor")
+    private ExecutorService restExecutor;
+
+    @Test
+    public void createAndLookup() {
+        Relation r = RelationFactory.createRelation();
+        r.getReferences().add(RelationFactory.createRelationReference("sso", "nettyfoo"));
+        Relation relResult = restTemplate.postForObject(URL, r, Relation.class);
+        assertThat(relResult.getCommonId()).isNotNull();
+
+        ResponseEntity<Relation> found = restTemplate.getForEntity(URL + "?endpoint=sso&id=nettyfoo", Relation.class);
+        assertThat(found.getStatusCodeValue()).isEqualTo(200);
+        assertThat(found.getBody().getCommonId()).isEqualTo(relResult.getCommonId());
+    }
+
+    @Test
+    public void requestsBeyondThePoolAndItsQueueAreRejected() throws Exception {
+        //one task holds the only thread, another one the only place in the queue
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Future<?> running = restExecutor.submit(blocked);
+        Future<?> queued = restExecutor.submit(blocked);
+        try {
+            ResponseEntity<String> rejected = restTemplate.getForEntity(URL + "?endpoint=sso&id=rejectedfoo", String.class);
+            assertThat(rejected.getStatusCodeValue()).isEqualTo(503);
+        } finally {
+            release.countDown();
+        }
+        running.get();
+        queued.get();
+
+        ResponseEntity<String> served = restTemplate.getForEntity(URL + "?endpoint=sso&id=rejectedfoo", String.class);
+        assertThat(served.getStatusCodeValue()).isEqualTo(404);
+    }
+}
@@ -0,0 +1,68 @@
+package com.nullendpoint.xref;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReferenceWriteLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysWritesAfterTheCheckpoint() throws Exception {
+        File file = new File(folder.getRoot(), "xref.wal");
+
+        ReferenceWriteLog writeLog = new ReferenceWriteLog(file, 4096, true);
+        ReferenceWrite first = writeLog.append("redhat", "person", "c1", "sso", "redfoo");
+        writeLog.append("redhat", "person", "c1", "dfs", "12334142424");
+        writeLog.append("redhat", "person", "c2", "ActiveDirectory", "redfoo~1");
+        writeLog.checkpoint(first.getSequence());
+        //no close, as after a crash
+
+        ReferenceWriteLog reopened = new ReferenceWriteLog(file, 4096, true);
+        List<ReferenceWrite> recovered = reopened.getRecovered();
+        assertThat(recovered.size()).isEqualTo(2);
+        assertThat(recovered.get(0).getEndpoint()).isEqualTo("dfs");
+        assertThat(recovered.get(1).getCommonId()).isEqualTo("c2");
+        assertThat(recovered.get(1).getEndpointId()).isEqualTo("redfoo~1");
+
+        ReferenceWrite next = reopened.append("redhat", "person", "c2", "sso", "bluefoo");
+        assertThat(next.getSequence()).isEqualTo(recovered.get(1).getSequence() + 1);
+        reopened.close();
+    }
+
+    @Test
+    public void startsOverOnceEverythingIsCheckpointed() throws Exception {
+        File file = new File(folder.getRoot(), "xref.wal");
+
+        ReferenceWriteLog writeLog = new ReferenceWriteLog(file, 256, true);
+        ReferenceWrite write = null;
+        for (int i = 0; i < 20; i++) {
+            write = writeLog.append("redhat", "person", "c1", "sso", "foo" + i);
+            if (write == null) {
+                break;
+            }
+            writeLog.checkpoint(write.getSequence());
+        }
+        assertThat(write).isNotNull();
+        writeLog.close();
+
+        //the writes left at the front of the file are older than the checkpoint and not read back
+        assertThat(new ReferenceWriteLog(file, 256, true).getRecovered()).isEmpty();
+    }
+
+    @Test
+    public void refusesWritesWhenFull() throws Exception {
+        ReferenceWriteLog writeLog = new ReferenceWriteLog(new File(folder.getRoot(), "xref.wal"), 128, false);
+
+        assertThat(writeLog.append("redhat", "person", "c1", "sso", "redfoo")).isNotNull();
+        assertThat(writeLog.append("redhat", "person", "c1", "sso", "redfoo")).isNull();
+        writeLog.close();
+    }
+}
@@ -0,0 +1,172 @@
+package com.nullendpoint.xref;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class RelationJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversTheRelationsFromTheLog() throws Exception {
+        File directory = folder.getRoot();
+
+        InMemoryXrefOperation store = new InMemoryXrefOperation(journal(directory), 0);
+        Relation created = store.createRelation("person", "redhat", relation("sso", "redfoo"));
+        store.addOrUpdateReference("12334142424", "dfs", created.getCommonId(), "person", "redhat");
+        store.addOrUpdateReference("redbar", "sso", created.getCommonId(), "person", "redhat");
+        //no close, as after a crash
+
+        InMemoryXrefOperation recovered = new InMemoryXrefOperation(journal(directory), 0);
+        Relation relation = recovered.findRelation("person", "redhat", "dfs", "12334142424");
+        assertThat(relation.getCommonId()).isEqualTo(created.getCommonId());
+        assertThat(relation.getReferences().size()).isEqualTo(2);
+        assertThat(recovered.findRelationByCommonId(created.getCommonId(), "person", "redhat").getReferences().get(0).getEndpointId()).isEqualTo("redbar");
+
+        //new ids carry on after the recovered ones
+        Relation next = recovered.createRelation("person", "redhat", relation("sso", "bluefoo"));
+        assertThat(next.getId()).isGreaterThan(created.getId());
+        recovered.close();
+    }
+
+    @Test
+    public void snapshotReplacesTheLogs() throws Exception {
+        File directory = folder.getRoot();
+
+        InMemoryXrefOperation store = new InMemoryXrefOperation(journal(directory), 0);
+        Relation first = store.createRelation("person", "redhat", relation("sso", "redfoo"));
+        store.snapshot();
+        Relation second = store.createRelation("person", "redhat", relation("sso", "bluefoo"));
+        store.deleteReference(first.getCommonId(), "person", "redhat", "sso", "redfoo");
+
+        assertThat(new File(directory, "snapshot").isFile()).isTrue();
+        //the snapshot has the first relation, the log after it the second one and the delete
+        assertThat(directory.list()).hasSize(2);
+
+        InMemoryXrefOperation recovered = new InMemoryXrefOperation(journal(directory), 0);
+        assertThat(recovered.findRelationByCommonId(first.getCommonId(), "person", "redhat").getReferences()).isEmpty();
+        assertThat(recovered.findRelation("person", "redhat", "sso", "bluefoo").getCommonId()).isEqualTo(second.getCommonId());
+        recovered.close();
+    }
+
+    @Test
+    public void stopsAtATornRecord() throws Exception {
+        File directory = folder.getRoot();
+
+        InMemoryXrefOperation store = new InMemoryXrefOperation(journal(directory), 0);
+        store.createRelation("person", "redhat", relation("sso", "redfoo"));
+        store.createRelation("person", "redhat", relation("sso", "bluefoo"));
+        File log = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(log, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+
+        InMemoryXrefOperation recovered = new InMemoryXrefOperation(journal(directory), 0);
+        assertThat(recovered.findRelation("person", "redhat", "sso", "redfoo")).isNotNull();
+        assertThat(recovered.findRelations("person", "redhat", relation("sso", "bluefoo")).get(0).isFound()).isFalse();
+        recovered.close();
+    }
+
+    @Test
+    public void appendsAfterAFailedOneAreRecovered() throws Exception {
+        File directory = folder.getRoot();
+
+        RelationJournal journal = new RelationJournal(directory, false) {
+            private int writes;
+
+            @Override
+            void write(FileChannel channel, ByteBuffer record) throws IOException {
+                if (++writes == 2) {
+                    //half of the record reaches the log before the write fails
+                    record.limit(record.limit() / 2);
+                    super.write(channel, record);
+                    throw new IOException("No space left on device");
+                }
+                super.write(channel, record);
+            }
+        };
+        journal.recover(replay(new ArrayList<Relation>()));
+        journal.append("redhat", "person", stored(1, "sso", "redfoo"));
+        try {
+            journal.append("redhat", "person", stored(2, "sso", "bluefoo"));
+            fail("the append did not fail");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        journal.append("redhat", "person", stored(3, "sso", "greenfoo"));
+        //no close, as after a crash
+
+        List<Relation> recovered = new ArrayList<Relation>();
+        RelationJournal reopened = journal(directory);
+        reopened.recover(replay(recovered));
+        assertThat(recovered).hasSize(2);
+        assertThat(recovered.get(0).getReferences().get(0).getEndpointId()).isEqualTo("redfoo");
+        assertThat(recovered.get(1).getReferences().get(0).getEndpointId()).isEqualTo("greenfoo");
+        reopened.close();
+    }
+
+    @Test
+    public void lookupsOfUnchangedReferencesNeverMissDuringWrites() throws Exception {
+        final InMemoryXrefOperation store = new InMemoryXrefOperation(null, 0);
+        final Relation created = store.createRelation("person", "redhat", relation("sso", "redfoo"));
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 20000; i++) {
+                        store.addOrUpdateReference("dfs" + i, "dfs", created.getCommonId(), "person", "redhat");
+                    }
+                } catch (EntityNotFoundException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        writer.start();
+        while (writer.isAlive()) {
+            assertThat(store.findRelations("person", "redhat", relation("sso", "redfoo")).get(0).isFound()).isTrue();
+        }
+        writer.join();
+    }
+
+    private static RelationJournal.Replay replay(final List<Relation> relations) {
+        return new RelationJournal.Replay() {
+            public void apply(String tenant, String entitySet, Relation relation) {
+                relations.add(relation);
+            }
+        };
+    }
+
+    private static Relation stored(int id, String endpoint, String endpointId) {
+        Relation relation = relation(endpoint, endpointId);
+        relation.setId(id);
+        relation.setCommonId("c" + id);
+        relation.getReferences().get(0).setId(id);
+        return relation;
+    }
+
+    private static RelationJournal journal(File directory) throws Exception {
+        return new RelationJournal(directory, false);
+    }
+
+    private static Relation relation(String endpoint, String endpointId) {
+        Relation relation = RelationFactory.createRelation();
+        relation.getReferences().add(RelationFactory.createRelationReference(endpoint, endpointId));
+        return relation;
+    }
+}
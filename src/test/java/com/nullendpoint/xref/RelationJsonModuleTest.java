@@ -0,0 +1,40 @@
+package com.nullendpoint.xref;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RelationJsonModuleTest {
+
+    private final ObjectMapper beanMapper = new ObjectMapper();
+    private final ObjectMapper mapper = XrefJson.mapper();
+
+    @Test
+    public void writesWhatTheBeanSerializerWrites() throws Exception {
+        Relation relation = RelationFactory.createRelation();
+        relation.setId(12);
+        relation.setCommonId("ace664a0-1d28-412a-9ea5-0bbf5739f4ce");
+        relation.getReferences().add(RelationFactory.createRelationReference(14, "sso", "redfoo"));
+        relation.getReferences().add(RelationFactory.createRelationReference("dfs", "12334142424"));
+
+        assertThat(mapper.writeValueAsString(relation)).isEqualTo(beanMapper.writeValueAsString(relation));
+        RelationLookup lookup = new RelationLookup("sso", "redfoo", relation);
+        assertThat(mapper.writeValueAsString(lookup)).isEqualTo(beanMapper.writeValueAsString(lookup));
+    }
+
+    @Test
+    public void readsWhatClientsSend() throws Exception {
+        Relation relation = mapper.readValue("{\"references\": [{\"endpoint\": \"sso\", \"endpointId\": 42, \"extra\": {\"a\": [1]}}, null],"
+                + " \"unknown\": [1, 2], \"id\": null}", Relation.class);
+
+        assertThat(relation.getId()).isNull();
+        assertThat(relation.getCommonId()).isNull();
+        assertThat(relation.getReferences().size()).isEqualTo(1);
+        assertThat(relation.getReferences().get(0).getEndpoint()).isEqualTo("sso");
+        assertThat(relation.getReferences().get(0).getEndpointId()).isEqualTo("42");
+
+        RelationLookup lookup = mapper.readValue(mapper.writeValueAsString(new RelationLookup("sso", "42", relation)), RelationLookup.class);
+        assertThat(lookup.getRelation().getReferences().get(0).getEndpointId()).isEqualTo("42");
+    }
+}
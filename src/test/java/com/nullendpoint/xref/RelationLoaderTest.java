@@ -0,0 +1,104 @@
+package com.nullendpoint.xref;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RelationLoaderTest {
+
+    private final RelationLoader loader = new RelationLoader();
+
+    @Test
+    public void loadLooksAtTheCacheFirst() throws Exception {
+        TestLoad load = new TestLoad(relation("c1"));
+        load.cached.set(relation("c1"));
+
+        assertThat(loader.load("redhat:person", "c1", load).getCommonId()).isEqualTo("c1");
+        assertThat(load.reads.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void loadSupersededByAWriteIsNotCached() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch written = new CountDownLatch(1);
+        final TestLoad load = new TestLoad(relation("c1")) {
+            @Override
+            public Relation read() throws EntityNotFoundException {
+                reading.countDown();
+                try {
+                    written.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read();
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Relation> loaded = executor.submit(new Callable<Relation>() {
+                @Override
+                public Relation call() throws Exception {
+                    return loader.load("redhat:person", "c1", load);
+                }
+            });
+            reading.await();
+            loader.supersede("redhat:person", "c1");
+            Relation write = relation("c1");
+            load.cached.set(write);
+            written.countDown();
+
+            //the caller gets what was read, the cache keeps the write
+            assertThat(loaded.get().getCommonId()).isEqualTo("c1");
+            assertThat(load.cached.get()).isSameAs(write);
+        } finally {
+            executor.shutdown();
+        }
+
+        //the next load is not superseded
+        TestLoad next = new TestLoad(relation("c1"));
+        loader.load("redhat:person", "c1", next);
+        assertThat(next.reads.get()).isEqualTo(1);
+        assertThat(next.cached.get().getCommonId()).isEqualTo("c1");
+    }
+
+    private static Relation relation(String commonId) {
+        Relation relation = RelationFactory.createRelation();
+        relation.setCommonId(commonId);
+        return relation;
+    }
+
+    /**
+     * A cache of one entry and a database of one relation.
+     */
+    private static class TestLoad implements RelationLoader.Load {
+
+        final AtomicReference<Relation> cached = new AtomicReference<Relation>();
+        final AtomicInteger reads = new AtomicInteger();
+        private final Relation stored;
+
+        TestLoad(Relation stored) {
+            this.stored = stored;
+        }
+
+        public Relation cached() {
+            return cached.get();
+        }
+
+        public Relation read() throws EntityNotFoundException {
+            reads.incrementAndGet();
+            return stored;
+        }
+
+        public void cache(Relation relation) {
+            cached.set(relation);
+        }
+    }
+}
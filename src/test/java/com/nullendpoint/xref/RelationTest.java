@@ -0,0 +1,42 @@
+package com.nullendpoint.xref;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class RelationTest {
+
+    @Test
+    public void snapshotCanNotBeModified() {
+        Relation relation = RelationFactory.createRelation();
+        relation.setId(12);
+        relation.setCommonId("ace664a0-1d28-412a-9ea5-0bbf5739f4ce");
+        relation.getReferences().add(RelationFactory.createRelationReference(14, "sso", "redfoo"));
+        Relation snapshot = relation.snapshot();
+
+        try {
+            snapshot.setCommonId("0e2b9b4a-1d28-412a-9ea5-0bbf5739f4ce");
+            fail("the common id of a snapshot was changed");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+        try {
+            snapshot.getReferences().get(0).setEndpointId("bluefoo");
+            fail("a reference of a snapshot was changed");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+        try {
+            snapshot.getReferences().add(RelationFactory.createRelationReference("dfs", "12334142424"));
+            fail("a reference was added to a snapshot");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+        assertThat(snapshot.getReferences().get(0).getEndpointId()).isEqualTo("redfoo");
+
+        //the relation it was taken from stays modifiable
+        relation.getReferences().get(0).setEndpointId("bluefoo");
+        assertThat(snapshot.getReferences().get(0).getEndpointId()).isEqualTo("redfoo");
+    }
+}
@@ -0,0 +1,190 @@
+package com.nullendpoint.xref;
+
+import org.flywaydb.core.Flyway;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * The replica is a database of its own that never receives the writes, as a replica lagging behind would.
+ */
+public class ReplicaDataSourceTest {
+
+    private EmbeddedDatabase primary;
+    private EmbeddedDatabase replica;
+
+    @Before
+    public void createDatabases() {
+        primary = createDatabase();
+        replica = createDatabase();
+    }
+
+    @After
+    public void shutdown() {
+        primary.shutdown();
+        replica.shutdown();
+    }
+
+    @Test
+    public void skipsAFailedReplicaAndFallsBackToThePrimary() throws Exception {
+        DataSource down = new DriverManagerDataSource("jdbc:h2:tcp://localhost:1/none");
+        XrefMetrics metrics = new XrefMetrics();
+        ReplicaDataSource dataSource = new ReplicaDataSource(Arrays.<DataSource>asList(down, replica), primary, 60000, metrics);
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(databaseOf(dataSource)).isEqualTo(databaseOf(replica));
+        }
+        assertThat(dataSource.isDown(0)).isTrue();
+        assertThat(metrics.getRegistry().meter("xref.replica.0.failure").getCount()).isEqualTo(1);
+
+        dataSource = new ReplicaDataSource(Collections.singletonList(down), primary, 60000, metrics);
+        assertThat(databaseOf(dataSource)).isEqualTo(databaseOf(primary));
+        assertThat(metrics.getRegistry().meter("xref.replica.fallback").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void readsItsOwnWritesFromThePrimary() throws Exception {
+        JDBCXrefOperation writer = createOperation();
+        Relation relation = RelationFactory.createRelation();
+        relation.getReferences().add(RelationFactory.createRelationReference("sso", "redfoo"));
+        relation = writer.createRelation("person", "redhat", relation);
+
+        assertThat(writer.findRelationByCommonId(relation.getCommonId(), "person", "redhat").getCommonId())
+                .isEqualTo(relation.getCommonId());
+        assertThat(writer.findRelation("person", "redhat", "sso", "redfoo").getCommonId())
+                .isEqualTo(relation.getCommonId());
+
+        JDBCXrefOperation reader = createOperation();
+        try {
+            reader.findRelationByCommonId(relation.getCommonId(), "person", "redhat");
+            fail("a relation written by another instance was read from the primary");
+        } catch (EntityNotFoundException e) {
+            //expected, the replica has not seen the write
+        }
+    }
+
+    @Test
+    public void confirmsMissesOnThePrimary() throws Exception {
+        Relation relation = RelationFactory.createRelation();
+        relation.getReferences().add(RelationFactory.createRelationReference("sso", "redfoo"));
+        relation = createOperation().createRelation("person", "redhat", relation);
+
+        CacheAccessor cacheAccessor = new CacheAccessor(new NoCacheProvider(), 60, 100);
+        JDBCXrefOperation reader = createOperation(cacheAccessor);
+        assertThat(reader.findRelation("person", "redhat", "sso", "redfoo").getCommonId()).isEqualTo(relation.getCommonId());
+        assertThat(cacheAccessor.isRelationMissingByEndpoint("redhat", "person", "sso", "redfoo")).isFalse();
+
+        Relation lookup = RelationFactory.createRelation();
+        lookup.getReferences().add(RelationFactory.createRelationReference("sso", "redfoo"));
+        lookup.getReferences().add(RelationFactory.createRelationReference("sso", "nofoo"));
+        List<RelationLookup> results = reader.findRelations("person", "redhat", lookup);
+        assertThat(results.get(0).isFound()).isTrue();
+        assertThat(results.get(1).isFound()).isFalse();
+        assertThat(cacheAccessor.isRelationMissingByEndpoint("redhat", "person", "sso", "redfoo")).isFalse();
+        assertThat(cacheAccessor.isRelationMissingByEndpoint("redhat", "person", "sso", "nofoo")).isTrue();
+    }
+
+    @Test
+    public void readsKeysInvalidatedByOtherInstancesFromThePrimary() throws Exception {
+        Relation relation = RelationFactory.createRelation();
+        relation.getReferences().add(RelationFactory.createRelationReference("sso", "redfoo"));
+        relation = createOperation().createRelation("person", "redhat", relation);
+
+        final List<InvalidationChannel.Listener> listeners = new ArrayList<InvalidationChannel.Listener>();
+        JDBCXrefOperation reader = createOperation();
+        reader.setInvalidationChannel(new InvalidationChannel() {
+            public void publish(String cacheName, Collection<String> keys) {
+            }
+
+            public void subscribe(Listener listener) {
+                listeners.add(listener);
+            }
+
+            public void close() {
+            }
+        });
+        for (InvalidationChannel.Listener listener : listeners) {
+            listener.invalidate("redhat:person", relation.getCommonId());
+        }
+
+        assertThat(reader.findRelationByCommonId(relation.getCommonId(), "person", "redhat").getCommonId())
+                .isEqualTo(relation.getCommonId());
+    }
+
+    @Test
+    public void connectsWithTheGivenCredentials() throws Exception {
+        ReplicaDataSource dataSource = new ReplicaDataSource(Collections.<DataSource>singletonList(replica), primary, 60000, new XrefMetrics());
+        Connection connection = dataSource.getConnection("sa", "");
+        try {
+            assertThat(connection.getMetaData().getURL()).isEqualTo(databaseOf(replica));
+        } finally {
+            connection.close();
+        }
+    }
+
+    private JDBCXrefOperation createOperation() {
+        return createOperation(new CacheAccessor(new NoCacheProvider()));
+    }
+
+    private JDBCXrefOperation createOperation(CacheAccessor cacheAccessor) {
+        JDBCXrefOperation operation = new JDBCXrefOperation(new JdbcTemplate(primary),
+                new TransactionTemplate(new DataSourceTransactionManager(primary)), cacheAccessor);
+        operation.setReadJdbcTemplate(new JdbcTemplate(replica), 60000);
+        return operation;
+    }
+
+    private static EmbeddedDatabase createDatabase() {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder().generateUniqueName(true).setType(EmbeddedDatabaseType.H2).build();
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(database);
+        flyway.setLocations("classpath:db/migration/h2");
+        flyway.migrate();
+        return database;
+    }
+
+    private static String databaseOf(DataSource dataSource) throws Exception {
+        Connection connection = dataSource.getConnection();
+        try {
+            return connection.getMetaData().getURL();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static class NoCacheProvider implements CacheProvider {
+
+        public Relation get(String cacheName, String key) {
+            return null;
+        }
+
+        public Map<String, Relation> getAll(String cacheName, Set<String> keys) {
+            return Collections.emptyMap();
+        }
+
+        public void put(String cacheName, String key, Relation relation) {
+        }
+
+        public void remove(String cacheName, String key) {
+        }
+    }
+}
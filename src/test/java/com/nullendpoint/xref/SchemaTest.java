@@ -0,0 +1,128 @@
+package com.nullendpoint.xref;
+
+import org.flywaydb.core.Flyway;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Checks the migrated schema: the lookups of {@link JDBCXrefOperation} resolve through indexes and the
+ * unique constraints hold. H2 names the index it uses in its plan, on MySQL the same lookups show
+ * "Using index" in EXPLAIN.
+ */
+public class SchemaTest {
+
+    private static EmbeddedDatabase database;
+    private static JdbcTemplate jdbcTemplate;
+
+    @BeforeClass
+    public static void migrate() {
+        database = new EmbeddedDatabaseBuilder().generateUniqueName(true).setType(EmbeddedDatabaseType.H2).build();
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(database);
+        flyway.setLocations("classpath:db/migration/h2");
+        flyway.migrate();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.update("insert into entitytype (id, tenant, entitytype) values (1, 'redhat', 'person')");
+        jdbcTemplate.update("insert into relation (id, commonid, entitytype_id) values (1, 'ace664a0-1d28-412a-9ea5-0bbf5739f4ce', 1)");
+        jdbcTemplate.update("insert into reference (relation_id, entitytype_id, endpoint, endpointid) values (1, 1, 'sso', 'redfoo')");
+        jdbcTemplate.update("insert into reference (relation_id, entitytype_id, endpoint, endpointid) values (1, 1, 'dfs', '12334142424')");
+    }
+
+    /**
+     * A database created from the schema before the migrations is baselined at V1 and migrated from there.
+     */
+    @Test
+    public void baselinedDatabaseGetsTheEntityTypeOfItsReferences() {
+        EmbeddedDatabase baselined = new EmbeddedDatabaseBuilder().generateUniqueName(true).setType(EmbeddedDatabaseType.H2)
+                .addScript("classpath:db/migration/h2/V1__baseline.sql").build();
+        try {
+            JdbcTemplate baselinedTemplate = new JdbcTemplate(baselined);
+            baselinedTemplate.update("insert into entitytype (id, tenant, entitytype) values (1, 'redhat', 'person')");
+            baselinedTemplate.update("insert into relation (id, commonid, entitytype_id) values (1, 'ace664a0-1d28-412a-9ea5-0bbf5739f4ce', 1)");
+            baselinedTemplate.update("insert into reference (relation_id, endpoint, endpointid) values (1, 'sso', 'redfoo')");
+            Flyway flyway = new Flyway();
+            flyway.setDataSource(baselined);
+            flyway.setLocations("classpath:db/migration/h2");
+            flyway.setBaselineOnMigrate(true);
+            flyway.setBaselineVersionAsString("1");
+            flyway.migrate();
+
+            assertThat(baselinedTemplate.queryForObject("select entitytype_id from reference where endpointid = 'redfoo'", Integer.class)).isEqualTo(1);
+            try {
+                baselinedTemplate.update("insert into reference (relation_id, entitytype_id, endpoint, endpointid) values (1, 1, 'sso', 'redfoo')");
+                fail("the same endpoint id was added twice");
+            } catch (DuplicateKeyException e) {
+                //expected
+            }
+        } finally {
+            baselined.shutdown();
+        }
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void endpointLookupUsesIndexesOnly() {
+        String plan = explain(JDBCXrefOperation.SELECT_RELATION_BY_ENDPOINT, 1, "sso", "redfoo");
+
+        assertThat(plan).doesNotContain("tableScan");
+        //H2 lists the conditions of the index in no particular order
+        assertThat(plan).containsPattern("(ENDPOINT_LOOKUP_0|ENTITYTYPE_ENDPOINT_0): [^*]*ENTITYTYPE_ID = \\?1");
+        assertThat(plan).contains("RELATION_REFERENCES_0: RELATION_ID = ");
+    }
+
+    @Test
+    public void commonIdLookupUsesTheUniqueIndex() {
+        String plan = explain(JDBCXrefOperation.SELECT_RELATION_BY_COMMON_ID, "ace664a0-1d28-412a-9ea5-0bbf5739f4ce");
+
+        assertThat(plan).doesNotContain("tableScan");
+        assertThat(plan).contains("COMMONID_0: COMMONID = ?1");
+    }
+
+    @Test
+    public void commonIdsAreUnique() {
+        try {
+            jdbcTemplate.update("insert into relation (id, commonid, entitytype_id) values (3, 'ace664a0-1d28-412a-9ea5-0bbf5739f4ce', 1)");
+            fail("a second relation with the same commonid was inserted");
+        } catch (DuplicateKeyException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void entityTypesAreUnique() {
+        try {
+            jdbcTemplate.update("insert into entitytype (tenant, entitytype) values ('redhat', 'person')");
+            fail("a second entity type was inserted for the same tenant and entity set");
+        } catch (DuplicateKeyException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void endpointIdsBelongToOneRelation() {
+        jdbcTemplate.update("insert into relation (id, commonid, entitytype_id) values (2, 'b3c2a3e4-6a0e-4c39-a1f0-3f3a4c1b8e21', 1)");
+        try {
+            jdbcTemplate.update("insert into reference (relation_id, entitytype_id, endpoint, endpointid) values (2, 1, 'sso', 'redfoo')");
+            fail("the same endpoint id was added to a second relation");
+        } catch (DuplicateKeyException e) {
+            //expected
+        }
+    }
+
+    private static String explain(String sql, Object... params) {
+        return jdbcTemplate.queryForObject("explain " + sql, String.class, params);
+    }
+}
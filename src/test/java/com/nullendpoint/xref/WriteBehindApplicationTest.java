@@ -0,0 +1,100 @@
+package com.nullendpoint.xref;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The add-update-reference PUT in write-behind mode. The flushes are left to the tests, the interval is
+ * longer than any of them.
+ */
+@RunWith(SpringRunner.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+        "xref.write-behind.enabled=true",
+        "xref.write-behind.log-path=target/write-behind/xref-references.wal",
+        "xref.write-behind.log-size=1048576",
+        "xref.write-behind.flush-interval=3600000"})
+public class WriteBehindApplicationTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private WriteBehindReferenceWriter referenceWriter;
+
+    @Autowired
+    private JDBCXrefOperation jdbcXrefOperation;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void referenceIsAcknowledgedBeforeItIsWritten() {
+        Relation relation = create("sso", "behindfoo");
+
+        ResponseEntity<Relation> acknowledged = put(relation.getCommonId(), "dfs", "behindbar");
+        assertThat(acknowledged.getStatusCodeValue()).isEqualTo(200);
+        assertThat(acknowledged.getBody().getReferences().size()).isEqualTo(2);
+        assertThat(references("dfs", "behindbar")).isEqualTo(0);
+        //served from the cache until the flush
+        Relation cached = restTemplate.getForObject("/xref/behindco/person?endpoint=dfs&id=behindbar", Relation.class);
+        assertThat(cached.getCommonId()).isEqualTo(relation.getCommonId());
+
+        referenceWriter.flush();
+
+        assertThat(references("dfs", "behindbar")).isEqualTo(1);
+        Relation written = jdbcXrefOperation.getCacheAccessor().getRelationByEndpoint("behindco", "person", "dfs", "behindbar");
+        assertThat(written.getReferences().size()).isEqualTo(2);
+        for (Relation.Reference reference : written.getReferences()) {
+            assertThat(reference.getId()).isNotNull();
+        }
+        Relation byCommonId = jdbcXrefOperation.getCacheAccessor().getRelationByCommonId("behindco", "person", relation.getCommonId());
+        assertThat(byCommonId.getReferences().get(1).getId()).isNotNull();
+    }
+
+    @Test
+    public void writeThatViolatesAConstraintIsDroppedFromTheCache() {
+        Relation relation = create("sso", "droppedfoo");
+        Relation owner = create("dfs", "takenbar");
+
+        //acknowledged, the endpoint id belongs to another relation of the entity set
+        assertThat(put(relation.getCommonId(), "dfs", "takenbar").getStatusCodeValue()).isEqualTo(200);
+
+        referenceWriter.flush();
+
+        assertThat(references("dfs", "takenbar")).isEqualTo(1);
+        assertThat(jdbcXrefOperation.getCacheAccessor().getRelationByEndpoint("behindco", "person", "dfs", "takenbar")).isNull();
+        Relation found = restTemplate.getForObject("/xref/behindco/person?endpoint=dfs&id=takenbar", Relation.class);
+        assertThat(found.getCommonId()).isEqualTo(owner.getCommonId());
+        Relation unchanged = restTemplate.getForObject("/xref/behindco/person/" + relation.getCommonId(), Relation.class);
+        assertThat(unchanged.getReferences().size()).isEqualTo(1);
+    }
+
+    private Relation create(String endpoint, String endpointId) {
+        Relation relation = RelationFactory.createRelation();
+        relation.getReferences().add(RelationFactory.createRelationReference(endpoint, endpointId));
+        return restTemplate.postForObject("/xref/behindco/person", relation, Relation.class);
+    }
+
+    private ResponseEntity<Relation> put(String commonId, String endpoint, String endpointId) {
+        return restTemplate.exchange("/xref/behindco/person/" + commonId + "/" + endpoint + "/" + endpointId,
+                HttpMethod.PUT, new HttpEntity<>(null, null), Relation.class);
+    }
+
+    private int references(String endpoint, String endpointId) {
+        return jdbcTemplate.queryForObject("select count(*) from reference where endpoint = ? and endpointid = ?",
+                Integer.class, endpoint, endpointId);
+    }
+}